@@ -0,0 +1,191 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Records the offset in a log file up to which all records are known to be intact.
+ * Crash recovery only needs to verify the records written after the checkpoint.
+ * The index of the log file can be saved alongside so it only has to be rebuilt from the records after it.
+ */
+class Checkpoint {
+
+    private static final String EXT = "ckpt";
+    private static final String INDEX_EXT = "idx";
+    private static final long MAGIC = 0x4c4f47434b505431L;
+    private static final long INDEX_MAGIC = 0x4c4f47434b494458L;
+
+    /**
+     * The index of a log file up to an offset
+     */
+    public static class Saved {
+        public final long offset;
+        public final LogIndex index;
+        public final StackOffsets stackOffsets;
+
+        private Saved(long offset, LogIndex index, StackOffsets stackOffsets) {
+            this.offset = offset;
+            this.index = index;
+            this.stackOffsets = stackOffsets;
+        }
+    }
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Returns the checkpoint file that belongs to a log file
+     *
+     * @param logFile
+     * @return
+     */
+    public static File fileFor(File logFile) {
+        return new File(logFile.getParentFile(), logFile.getName() + "." + EXT);
+    }
+
+    /**
+     * Returns the file the index of a log file is saved in
+     *
+     * @param logFile
+     * @return
+     */
+    public static File indexFileFor(File logFile) {
+        return new File(logFile.getParentFile(), logFile.getName() + "." + EXT + "." + INDEX_EXT);
+    }
+
+    /**
+     * Reads the checkpoint of a log file
+     *
+     * @param logFile
+     * @return the known good offset or 0 if there is no valid checkpoint
+     */
+    public static long read(File logFile) {
+        File file = fileFor(logFile);
+        if (!file.exists()) {
+            return 0;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                long magic = raf.readLong();
+                long offset = raf.readLong();
+                long check = raf.readLong();
+                if (magic == MAGIC && check == ~offset && offset >= 0) {
+                    return offset;
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            // fall back to a full scan
+        }
+        return 0;
+    }
+
+    /**
+     * Records a known good offset in a log file
+     *
+     * @param logFile
+     * @param offset
+     * @throws IOException
+     */
+    public static void write(File logFile, long offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fileFor(logFile), "rw");
+        try {
+            raf.writeLong(MAGIC);
+            raf.writeLong(offset);
+            raf.writeLong(~offset);
+            raf.setLength(24);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads the saved index of a log file
+     *
+     * @param logFile
+     * @param segment the number the log file will be sealed as
+     * @return the saved index or null if there is no valid index for the segment
+     */
+    public static Saved readIndex(File logFile, long segment) {
+        File file = indexFileFor(logFile);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            try {
+                if (in.readLong() != INDEX_MAGIC || in.readLong() != segment) {
+                    return null;
+                }
+                long offset = in.readLong();
+                LogIndex index = LogIndex.readFrom(in);
+                StackOffsets stackOffsets = StackOffsets.readFrom(in);
+                long crc = checked.getChecksum().getValue();
+                if (in.readLong() == crc && offset >= 0) {
+                    return new Saved(offset, index, stackOffsets);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // fall back to a full scan
+        }
+        return null;
+    }
+
+    /**
+     * Saves the index of a log file.
+     * The file is replaced atomically so a crash never leaves a partial index.
+     *
+     * @param logFile
+     * @param segment      the number the log file will be sealed as
+     * @param offset       the length of the log file the index covers
+     * @param index        the index of the records before the offset
+     * @param stackOffsets the records before the offset holding each distinct stack trace
+     * @throws IOException
+     */
+    public static void writeIndex(File logFile, long segment, long offset, LogIndex index, StackOffsets stackOffsets) throws IOException {
+        File file = indexFileFor(logFile);
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)), new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        try {
+            out.writeLong(INDEX_MAGIC);
+            out.writeLong(segment);
+            out.writeLong(offset);
+            index.writeTo(out);
+            stackOffsets.writeTo(out);
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to write " + file);
+        }
+    }
+
+    /**
+     * Removes the checkpoint and the saved index so the next recovery scans the whole file
+     *
+     * @param logFile
+     */
+    public static void clear(File logFile) {
+        fileFor(logFile).delete();
+        indexFileFor(logFile).delete();
+    }
+}
@@ -0,0 +1,192 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies a {@link RetentionPolicy} to the segments of a {@link LogSnapshot}.
+ * Segments are streamed one record at a time so memory use depends only on the size of a single
+ * segment's stack trace table, never on the size of the log.
+ *
+ * The byte limits keep the newest entries of each level, so the bytes each level takes in every
+ * segment are measured first. A segment is then only rewritten if it holds entries the policy drops.
+ */
+class Compactor {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final RetentionPolicy mPolicy;
+    private final List<LogSnapshot.Segment> mSegments;
+    private final long mNow;
+    private final JsonLineReader mReader = new JsonLineReader();
+    private final JsonLineWriter mWriter = new JsonLineWriter();
+    private final RecordWriter mRecordWriter = new RecordWriter();
+    // the bytes taken by each level in each segment
+    private long[][] mLevelBytes;
+
+    /**
+     * The result of rewriting a segment
+     */
+    static class Result {
+        public final LogIndex index;
+        public final long length;
+        public final int kept;
+        public final int dropped;
+
+        Result(LogIndex index, long length, int kept, int dropped) {
+            this.index = index;
+            this.length = length;
+            this.kept = kept;
+            this.dropped = dropped;
+        }
+    }
+
+    /**
+     * @param policy   the retention policy
+     * @param segments the snapshot segments ordered oldest first. The newest may be the active log file.
+     * @param now      the current time in milliseconds
+     */
+    Compactor(RetentionPolicy policy, List<LogSnapshot.Segment> segments, long now) {
+        mPolicy = policy;
+        mSegments = segments;
+        mNow = now;
+    }
+
+    /**
+     * Measures the bytes taken by each level in every segment
+     *
+     * @throws IOException
+     */
+    void measure() throws IOException {
+        mLevelBytes = new long[mSegments.size()][LogLevel.values().length];
+        for (int s = 0; s < mSegments.size(); s++) {
+            RecordReader records = openRecords(mSegments.get(s));
+            long offset = 0;
+            while (records.next()) {
+                LogEntry entry = parse(records);
+                if (entry != null) {
+                    mLevelBytes[s][entry.level.getIndex()] += records.offset() - offset;
+                }
+                offset = records.offset();
+            }
+        }
+    }
+
+    /**
+     * Counts the entries in a segment the policy would drop
+     *
+     * @param s the position of the segment in the snapshot
+     * @return
+     * @throws IOException
+     */
+    int countDropped(int s) throws IOException {
+        long[] newer = newerBytes(s);
+        RecordReader records = openRecords(mSegments.get(s));
+        int dropped = 0;
+        long offset = 0;
+        while (records.next()) {
+            LogEntry entry = parse(records);
+            if (entry != null && !retains(entry, records.offset() - offset, newer)) {
+                dropped++;
+            }
+            offset = records.offset();
+        }
+        return dropped;
+    }
+
+    /**
+     * Writes the entries of a segment the policy keeps to a new file.
+     * Stack traces shared by reference are resolved and stored again so the new file stands alone.
+     *
+     * @param s   the position of the segment in the snapshot
+     * @param out the file to write
+     * @return the index and size of the new file
+     * @throws IOException
+     */
+    Result rewrite(int s, File out) throws IOException {
+        long[] newer = newerBytes(s);
+        RecordReader records = openRecords(mSegments.get(s));
+        LogIndex index = new LogIndex();
+        Map<Long, String> stacks = new HashMap<>();
+        StackOffsets stackOffsets = new StackOffsets();
+        int kept = 0;
+        int dropped = 0;
+        long length = 0;
+        long offset = 0;
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(out));
+        try {
+            while (records.next()) {
+                LogEntry entry = parse(records);
+                if (entry != null) {
+                    FileLogger.resolveStack(entry, offset, stacks);
+                    if (retains(entry, records.offset() - offset, newer)) {
+                        long stackAt = stackOffsets.reference(entry.stackFingerprint, entry.getDetails(), length);
+                        mWriter.encode(entry, stackAt);
+                        index.add(entry, length);
+                        length += mRecordWriter.write(os, mWriter.buffer(), mWriter.length() - 1);
+                        kept++;
+                    } else {
+                        dropped++;
+                    }
+                }
+                offset = records.offset();
+            }
+        } finally {
+            os.close();
+        }
+        return new Result(index, length, kept, dropped);
+    }
+
+    /**
+     * Checks if the policy keeps an entry and counts it against its level's limit.
+     *
+     * @param entry the entry
+     * @param size  the size of the entry's record
+     * @param newer the bytes taken by newer entries of each level. This is updated as entries are visited oldest first.
+     * @return
+     */
+    private boolean retains(LogEntry entry, long size, long[] newer) {
+        int level = entry.level.getIndex();
+        newer[level] -= size;
+        return mPolicy.retains(entry.level, mNow - entry.date.getTime(), newer[level], size);
+    }
+
+    /**
+     * Returns the bytes taken by each level from the start of a segment to the end of the log
+     *
+     * @param s the position of the segment in the snapshot
+     * @return
+     */
+    private long[] newerBytes(int s) {
+        long[] newer = new long[LogLevel.values().length];
+        for (int i = s; i < mSegments.size(); i++) {
+            for (int l = 0; l < newer.length; l++) {
+                newer[l] += mLevelBytes[i][l];
+            }
+        }
+        return newer;
+    }
+
+    private LogEntry parse(RecordReader records) {
+        return mReader.parse(new String(records.payload(), 0, records.payloadLength(), UTF8));
+    }
+
+    /**
+     * Reads a segment from its start.
+     * Each pass rewinds the snapshot's stream so the segment is never reopened by name.
+     *
+     * @param segment
+     * @return
+     * @throws IOException
+     */
+    private static RecordReader openRecords(LogSnapshot.Segment segment) throws IOException {
+        segment.in.getChannel().position(0);
+        return LogSnapshot.openRecords(segment);
+    }
+}
@@ -0,0 +1,37 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.PrintStream;
+
+/**
+ * Writes log messages to a print stream.
+ * This is useful when running the logger on a desktop or server jvm.
+ */
+public class ConsoleLogSink implements LogSink {
+    private final PrintStream out;
+
+    /**
+     * Writes messages to standard error
+     */
+    public ConsoleLogSink() {
+        this(System.err);
+    }
+
+    /**
+     * @param out the stream where messages will be written
+     */
+    public ConsoleLogSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public int println(LogLevel level, String tag, String message, String stackTrace, LogField[] fields) {
+        String line = level.getLabel() + "/" + tag + ": " + LogFormat.appendFields(message, fields);
+        synchronized (out) {
+            out.println(line);
+            if (stackTrace != null) {
+                out.print(stackTrace);
+            }
+        }
+        return line.length();
+    }
+}
@@ -0,0 +1,1719 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends messages to a platform sink and records them to a log file.
+ * This class contains no platform specific code so it may be used on android or a regular jvm.
+ *
+ * Entries are encoded as json (see {@link JsonLineWriter}) and appended to the log file as
+ * records framed with their length and CRC32 (see {@link RecordWriter}).
+ * When the log file grows beyond a quarter of the maximum size it is sealed by renaming it to
+ * a numbered segment (e.g. log.txt.1) and a new log file is started. The oldest segments are
+ * deleted to keep the total size below the maximum.
+ * If a {@link RetentionPolicy} is set, sealed segments are first compacted on a low priority
+ * background thread to remove the entries the policy no longer keeps, so less important entries
+ * make room for errors before whole segments are deleted.
+ *
+ * Each process appends to its own stream of segments (see {@link LogStreams}) so several
+ * processes may share a log file without locking each other. The maximum size applies to each
+ * stream. Readers merge the streams of all processes by time.
+ *
+ * If the process dies mid-write the log may end in a torn record. When the file is opened
+ * the records written after the last {@link Checkpoint} are verified and any torn tail is truncated.
+ *
+ * Logging never touches the disk on the calling thread. Entries are buffered in memory and written
+ * in batches on a background thread which also creates the file and runs recovery the first time
+ * it is needed. This keeps logging from the main thread free of StrictMode disk violations.
+ *
+ * Readers work from a {@link LogSnapshot} of the committed segments and never hold a lock
+ * the writer needs while parsing.
+ */
+public class FileLogger {
+
+    public static final long DEFAULT_MAX_LOG_FILE_SIZE = 1024 * 200;
+    private static final LogField[] NO_FIELDS = new LogField[0];
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long CHECKPOINT_INTERVAL = 1024 * 32;
+    private static final long INDEX_CHECKPOINT_INTERVAL = 1024 * 128;
+    private static final int MAX_PENDING_ENTRIES = 5000;
+    private static final long SYNC_TIMEOUT = 5000;
+    private static final ExecutorService sIoExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "logger-io");
+            thread.setDaemon(true);
+            sIoThread = thread;
+            return thread;
+        }
+    });
+    private static volatile Thread sIoThread;
+    // a thread that must never wait for the io thread, such as the android main thread
+    private static volatile Thread sMainThread = null;
+    private static final AtomicLong sDroppedEntries = new AtomicLong();
+    private static final ExecutorService sCompactExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "logger-compact");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    private final File mLogFile;
+    private volatile File mStream = null;
+    private final LogLevel mMinLoggingLevel;
+    private final long mMaxLogFileSize;
+    private final LogSink mSink;
+    private final LogPublisher mPublisher;
+    private final JsonLineWriter mWriter = new JsonLineWriter();
+    private final RecordWriter mRecordWriter = new RecordWriter();
+    private OutputStream mOut = null;
+    private long mLogFileLength = 0;
+    private long mCheckpointOffset = 0;
+    // the length of the log file covered by the saved index
+    private long mIndexCheckpointOffset = 0;
+    private boolean mRecovered = false;
+    // the number the log file will be sealed as. Changes are made under the segment lock
+    private long mNextSegment = 1;
+    private long mSealedBytes = 0;
+    // guards the published segment state that readers take snapshots of
+    private final Object mSegmentLock = new Object();
+    private final List<File> mSealed = new ArrayList<>();
+    private long mCommittedLength = 0;
+    private LogIndex mActiveIndex = new LogIndex();
+    private final ConcurrentHashMap<File, LogIndex> mSealedIndexes = new ConcurrentHashMap<>();
+    private final StreamIndexes mOtherIndexes = new StreamIndexes();
+    // incremented each time a sealed segment is replaced by a compacted copy
+    private long mGeneration = 0;
+    private volatile RetentionPolicy mRetentionPolicy = null;
+    private volatile boolean mClosed = false;
+    private final AtomicBoolean mCompactionScheduled = new AtomicBoolean(false);
+    private final Runnable mCompact = new Runnable() {
+        @Override
+        public void run() {
+            mCompactionScheduled.set(false);
+            compactSegments();
+        }
+    };
+    // the offsets of the records in the log file holding each distinct stack trace
+    private StackOffsets mStackOffsets = new StackOffsets();
+    private final Object mPendingLock = new Object();
+    private ArrayDeque<LogEntry> mPending = new ArrayDeque<>();
+    private boolean mDrainScheduled = false;
+    // false while the log file cannot be written, so pending entries are dropped rather than waited on
+    private boolean mWritable = true;
+    // the time of a flush that has not been applied yet, or 0
+    private long mFlushTime = 0;
+    // entries with a lower sequence number were logged before that flush
+    private long mFlushSequence = 0;
+    // the sequence number of the last flush. Entries forwarded later that were logged before it are discarded
+    private long mFlushedSequence = 0;
+    // receives entries logged after this logger was replaced
+    private volatile FileLogger mSuccessor = null;
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param logFile        the file where logs will be written. If null logs will only be sent to the sink.
+     * @param minLogingLevel the minimum level a log must be before it is recorded to the log file
+     * @param maxLogFileSize the maximum size the log file may become before old logs are truncated
+     * @param sink           the platform sink. If null messages are only recorded to the log file.
+     */
+    public FileLogger(File logFile, LogLevel minLogingLevel, long maxLogFileSize, LogSink sink) {
+        this(logFile, minLogingLevel, maxLogFileSize, sink, new LogPublisher());
+    }
+
+    /**
+     * @param logFile        the file where logs will be written. If null logs will only be sent to the sink.
+     * @param minLogingLevel the minimum level a log must be before it is recorded to the log file
+     * @param maxLogFileSize the maximum size the log file may become before old logs are truncated
+     * @param sink           the platform sink. If null messages are only recorded to the log file.
+     * @param publisher      delivers recorded entries to live subscribers. This may be shared between loggers
+     *                       so subscriptions survive reconfiguration.
+     */
+    public FileLogger(File logFile, LogLevel minLogingLevel, long maxLogFileSize, LogSink sink, LogPublisher publisher) {
+        if (logFile != null && logFile.getParentFile() == null) {
+            // segments and other files are kept next to the log file so it needs a directory
+            logFile = logFile.getAbsoluteFile();
+        }
+        mLogFile = logFile;
+        if (minLogingLevel == null) {
+            mMinLoggingLevel = LogLevel.Info;
+        } else {
+            mMinLoggingLevel = minLogingLevel;
+        }
+        mMaxLogFileSize = maxLogFileSize;
+        mSink = sink;
+        mPublisher = publisher != null ? publisher : new LogPublisher();
+    }
+
+    /**
+     * Sends a message to the sink and to the log file.
+     *
+     * @param level         the log level
+     * @param logMessageTag A tag identifying a group of log messages.
+     * @param logMessage    The message to add to the log.
+     */
+    public void log(LogLevel level, String logMessageTag, String logMessage) {
+        log(level, logMessageTag, logMessage, null, NO_FIELDS);
+    }
+
+    /**
+     * Sends a message and the exception to the sink and to the log file.
+     *
+     * @param level              the log level
+     * @param logMessageTag      A tag identifying a group of log messages.
+     * @param logMessage         The message to add to the log.
+     * @param throwableException An optional exception to log
+     */
+    public void log(LogLevel level, String logMessageTag, String logMessage, Throwable throwableException) {
+        log(level, logMessageTag, logMessage, throwableException, NO_FIELDS);
+    }
+
+    /**
+     * Sends a message with structured fields and an optional exception to the sink and to the log file.
+     *
+     * @param level              the log level
+     * @param logMessageTag      A tag identifying a group of log messages.
+     * @param logMessage         The message to add to the log.
+     * @param throwableException An optional exception to log
+     * @param fields             structured fields to record with the message
+     */
+    public void log(LogLevel level, String logMessageTag, String logMessage, Throwable throwableException, LogField... fields) {
+        if (fields == null) {
+            fields = NO_FIELDS;
+        }
+        // rendered once for both the sink and the log file
+        ThrowableRenderer.Rendered stack = ThrowableRenderer.render(throwableException);
+        int logResult = mSink != null ? mSink.println(level, logMessageTag, logMessage, stack != null ? stack.text : null, fields) : 1;
+        if (logResult > 0 && level.getIndex() >= mMinLoggingLevel.getIndex()
+                && (mLogFile != null || mPublisher.hasSubscribers())) {
+            LogEntry entry;
+            if (mLogFile != null) {
+                entry = logToFile(level, logMessageTag, logMessage, stack, fields);
+            } else {
+                entry = newEntry(level, logMessageTag, logMessage, stack, fields);
+            }
+            mPublisher.publish(entry);
+        }
+    }
+
+    /**
+     * Creates an entry stamped with the current time, the next sequence number and the calling thread
+     *
+     * @param level   the log level
+     * @param tag     the tag
+     * @param message the message
+     * @param stack   the rendered exception or null
+     * @param fields  the structured fields
+     * @return
+     */
+    private static LogEntry newEntry(LogLevel level, String tag, String message, ThrowableRenderer.Rendered stack, LogField[] fields) {
+        LogEntry entry = new LogEntry(new Date(LogMetadata.currentTimeMillis()), level, tag, message, stack != null ? stack.text : null, fields);
+        if (stack != null) {
+            entry.stackFingerprint = stack.fingerprint;
+        }
+        LogMetadata.ThreadInfo thread = LogMetadata.currentThread();
+        entry.sequence = LogMetadata.nextSequence();
+        entry.processId = LogMetadata.getProcessId();
+        entry.threadId = thread.id;
+        entry.threadName = thread.name;
+        return entry;
+    }
+
+    /**
+     * Subscribes to entries as they are logged.
+     * See {@link LogPublisher#subscribe(LogFilter, LogListener, Executor)}
+     *
+     * @param filter   selects the entries to deliver. If null all entries are delivered.
+     * @param listener receives the entries
+     * @param executor runs the listener
+     * @return the subscription
+     */
+    public LogSubscription subscribe(LogFilter filter, LogListener listener, Executor executor) {
+        return mPublisher.subscribe(filter, listener, executor);
+    }
+
+    /**
+     * Returns the publisher that delivers entries to live subscribers
+     * @return
+     */
+    public LogPublisher getPublisher() {
+        return mPublisher;
+    }
+
+    /**
+     * Returns the minimum level a log must be before it is recorded to the log file
+     * @return
+     */
+    public LogLevel getMinLoggingLevel() {
+        return mMinLoggingLevel;
+    }
+
+    /**
+     * Returns the path to the log file
+     * @return
+     */
+    public File getLogFile() {
+        return mLogFile;
+    }
+
+    /**
+     * Sets the policy that decides which entries are kept as the log grows.
+     * Sealed segments are compacted in the background whenever a segment is sealed.
+     *
+     * @param policy the retention policy. If null only the maximum log size applies.
+     */
+    public void setRetentionPolicy(RetentionPolicy policy) {
+        mRetentionPolicy = policy;
+        compact();
+    }
+
+    /**
+     * Returns the retention policy
+     * @return null if there is none
+     */
+    public RetentionPolicy getRetentionPolicy() {
+        return mRetentionPolicy;
+    }
+
+    /**
+     * Applies the retention policy to the sealed segments in the background.
+     * This happens automatically when a segment is sealed but age limits may also be enforced
+     * periodically by calling this.
+     */
+    public void compact() {
+        if (mLogFile != null && mRetentionPolicy != null && mCompactionScheduled.compareAndSet(false, true)) {
+            sCompactExecutor.execute(mCompact);
+        }
+    }
+
+    /**
+     * Opens the log file for writing on the calling thread.
+     * If the file already exists any torn record left by a crash is removed.
+     * This is done automatically in the background when the first message is logged.
+     *
+     * @throws IOException
+     */
+    public synchronized void open() throws IOException {
+        if (mLogFile != null) {
+            openLocked();
+        }
+    }
+
+    /**
+     * Closes the log file once pending entries have been written.
+     * It will be reopened if more messages are logged.
+     */
+    public void close() {
+        // another logger may take over the file so stop replacing segments
+        mClosed = true;
+        sIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (FileLogger.this) {
+                    if (mOut != null) {
+                        closeQuietly();
+                        try {
+                            writeIndexCheckpoint();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Empties the log file and deletes all sealed segments.
+     * Entries that have not been written yet are discarded.
+     * Entries logged by other processes before now are hidden and their files are removed
+     * as soon as it is safe to do so.
+     */
+    public void flush() {
+        FileLogger successor;
+        synchronized (mPendingLock) {
+            successor = mSuccessor;
+            if (successor == null) {
+                mPending.clear();
+                mPendingLock.notifyAll();
+                scheduleFlushLocked(LogMetadata.currentTimeMillis(), LogMetadata.nextSequence());
+                return;
+            }
+        }
+        successor.flush();
+    }
+
+    /**
+     * Applies a flush made on a logger this one replaced.
+     * Entries forwarded here that were logged before the flush are discarded.
+     *
+     * @param flushTime     the time of the flush
+     * @param flushSequence the sequence number taken by the flush
+     */
+    private void flush(long flushTime, long flushSequence) {
+        synchronized (mPendingLock) {
+            Iterator<LogEntry> it = mPending.iterator();
+            while (it.hasNext()) {
+                if (it.next().sequence < flushSequence) {
+                    it.remove();
+                }
+            }
+            mPendingLock.notifyAll();
+            scheduleFlushLocked(flushTime, flushSequence);
+        }
+    }
+
+    /**
+     * Records a flush to be applied by the next drain before it writes anything logged after it.
+     * Callers must hold mPendingLock.
+     *
+     * @param flushTime     the time of the flush
+     * @param flushSequence the sequence number taken by the flush
+     */
+    private void scheduleFlushLocked(long flushTime, long flushSequence) {
+        mFlushTime = Math.max(mFlushTime, flushTime);
+        mFlushSequence = Math.max(mFlushSequence, flushSequence);
+        mFlushedSequence = Math.max(mFlushedSequence, flushSequence);
+        if (!mDrainScheduled) {
+            mDrainScheduled = true;
+            sIoExecutor.execute(mDrain);
+        }
+    }
+
+    /**
+     * Closes this logger and sends anything logged to it from now on to another logger.
+     * Threads that still hold this logger while it is being reconfigured therefore do not
+     * write to the same file as its replacement.
+     *
+     * @param successor the logger that replaces this one
+     */
+    void replaceWith(FileLogger successor) {
+        synchronized (mPendingLock) {
+            mSuccessor = successor;
+            if (mFlushTime != 0) {
+                // the successor must apply the flush before it writes anything logged after it
+                successor.flush(mFlushTime, mFlushSequence);
+                mFlushTime = 0;
+                mFlushSequence = 0;
+            }
+        }
+        close();
+    }
+
+    /**
+     * Sets a thread that must never wait for entries to be written, such as the android main thread.
+     * Entries logged on it are dropped if the io thread falls behind.
+     *
+     * @param thread the thread or null
+     */
+    static void setMainThread(Thread thread) {
+        sMainThread = thread;
+    }
+
+    /**
+     * Returns the number of entries discarded by all loggers because the log file could not be written
+     * @return
+     */
+    static long getDroppedEntries() {
+        return sDroppedEntries.get();
+    }
+
+    /**
+     * Blocks until all entries logged so far have been written to the log file
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @return false if the timeout elapsed first
+     */
+    public boolean sync(long timeout) {
+        return runOnIoThread(mDrain, timeout);
+    }
+
+    /**
+     * Runs a task on the io thread after everything queued before it and waits for it to finish
+     *
+     * @param task    the task to run
+     * @param timeout the maximum time to wait in milliseconds
+     * @return false if the timeout elapsed first
+     */
+    private boolean runOnIoThread(Runnable task, long timeout) {
+        if (Thread.currentThread() == sIoThread) {
+            task.run();
+            return true;
+        }
+        Future<?> barrier = sIoExecutor.submit(task);
+        try {
+            barrier.get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } catch (TimeoutException e) {
+            // give up waiting
+        }
+        return false;
+    }
+
+    /**
+     * Creates an entry and queues it to be written to the log file.
+     * The entry is stamped while the pending lock is held so entries are queued in the order
+     * of their time and sequence number, and a flush never discards an entry logged after it.
+     * If the io thread falls behind the caller waits for it to take the pending entries,
+     * except on the main thread where the oldest pending entry is dropped instead.
+     *
+     * @param level   the log level
+     * @param tag     the tag
+     * @param message the message
+     * @param stack   the rendered exception or null
+     * @param fields  the structured fields
+     * @return the entry
+     */
+    private LogEntry logToFile(LogLevel level, String tag, String message, ThrowableRenderer.Rendered stack, LogField[] fields) {
+        FileLogger successor = mSuccessor;
+        if (successor != null) {
+            if (successor.mLogFile != null) {
+                return successor.logToFile(level, tag, message, stack, fields);
+            }
+            return newEntry(level, tag, message, stack, fields);
+        }
+        synchronized (mPendingLock) {
+            if (mPending.size() >= MAX_PENDING_ENTRIES) {
+                awaitRoomLocked();
+            }
+            LogEntry entry = newEntry(level, tag, message, stack, fields);
+            enqueueLocked(entry);
+            return entry;
+        }
+    }
+
+    /**
+     * Queues entries taken from a replaced logger in front of those logged since.
+     * Entries logged before the last flush are discarded.
+     * This runs on the io thread, which cannot wait for itself, so the entries are not held to
+     * the pending limit. There are never more of them than the replaced logger could hold.
+     *
+     * @param batch the entries, oldest first
+     */
+    private void forward(ArrayDeque<LogEntry> batch) {
+        FileLogger successor = mSuccessor;
+        if (successor != null) {
+            if (successor.mLogFile != null) {
+                successor.forward(batch);
+            }
+            return;
+        }
+        synchronized (mPendingLock) {
+            Iterator<LogEntry> it = batch.iterator();
+            while (it.hasNext()) {
+                if (it.next().sequence < mFlushedSequence) {
+                    it.remove();
+                }
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            batch.addAll(mPending);
+            mPending = batch;
+            if (!mDrainScheduled) {
+                mDrainScheduled = true;
+                sIoExecutor.execute(mDrain);
+            }
+        }
+    }
+
+    /**
+     * Adds an entry to the pending entries and schedules a drain.
+     * Entries are only dropped while the log file cannot be written.
+     * Callers must hold mPendingLock.
+     *
+     * @param entry the entry to append
+     */
+    private void enqueueLocked(LogEntry entry) {
+        if (mPending.size() >= MAX_PENDING_ENTRIES) {
+            // the file cannot be written. Keep the newest entries
+            mPending.pollFirst();
+            sDroppedEntries.incrementAndGet();
+        }
+        mPending.addLast(entry);
+        if (!mDrainScheduled) {
+            mDrainScheduled = true;
+            sIoExecutor.execute(mDrain);
+        }
+    }
+
+    /**
+     * Waits until the io thread takes the pending entries.
+     * This does not wait if the log file cannot be written or the caller is the io thread or the
+     * main thread, and gives up after {@link #SYNC_TIMEOUT} in case the io thread is stuck.
+     * Callers must hold mPendingLock.
+     */
+    private void awaitRoomLocked() {
+        Thread current = Thread.currentThread();
+        if (!mWritable || current == sIoThread || current == sMainThread) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + SYNC_TIMEOUT;
+        try {
+            while (mPending.size() >= MAX_PENDING_ENTRIES && mWritable) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return;
+                }
+                mPendingLock.wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes all pending entries to the log file.
+     * This runs on the io thread.
+     */
+    private void drain() {
+        ArrayDeque<LogEntry> batch;
+        long flushTime;
+        long flushSequence;
+        FileLogger successor;
+        synchronized (mPendingLock) {
+            mDrainScheduled = false;
+            successor = mSuccessor;
+            flushTime = mFlushTime;
+            flushSequence = mFlushSequence;
+            mFlushTime = 0;
+            mFlushSequence = 0;
+            if (mPending.isEmpty() && flushTime == 0) {
+                return;
+            }
+            batch = mPending;
+            mPending = new ArrayDeque<>();
+            // wake callers waiting for room
+            mPendingLock.notifyAll();
+        }
+        if (successor != null) {
+            // queued before this logger was replaced. A pending flush was handed over with it
+            forward(batch);
+            return;
+        }
+        boolean written = false;
+        synchronized (this) {
+            try {
+                if (flushTime != 0) {
+                    deleteAllLocked(flushTime);
+                }
+                // append log messages. The json line ends with a newline which is part of the frame, not the payload
+                LogEntry entry;
+                while ((entry = batch.peekFirst()) != null) {
+                    openLocked();
+                    long offset = mLogFileLength;
+                    long stackAt = mStackOffsets.reference(entry.stackFingerprint, entry.getDetails(), offset);
+                    mWriter.encode(entry, stackAt);
+                    if (mWriter.length() - 1 > RecordWriter.MAX_RECORD_LENGTH) {
+                        // readers would reject the record
+                        mStackOffsets.forget(entry.stackFingerprint, offset);
+                        batch.pollFirst();
+                        sDroppedEntries.incrementAndGet();
+                        continue;
+                    }
+                    mLogFileLength += mRecordWriter.write(mOut, mWriter.buffer(), mWriter.length() - 1);
+                    batch.pollFirst();
+                    synchronized (mActiveIndex) {
+                        mActiveIndex.add(entry, offset);
+                    }
+                    if (mLogFileLength >= getSegmentSize()) {
+                        commitLocked();
+                        rollLocked();
+                    }
+                }
+                if (mOut != null) {
+                    commitLocked();
+                    if (mLogFileLength - mCheckpointOffset >= CHECKPOINT_INTERVAL) {
+                        writeCheckpoint(mLogFileLength);
+                    }
+                    if (mLogFileLength - mIndexCheckpointOffset >= INDEX_CHECKPOINT_INTERVAL) {
+                        writeIndexCheckpoint();
+                    }
+                }
+                written = true;
+            } catch (IOException e) {
+                closeQuietly();
+                e.printStackTrace();
+            } catch (RuntimeException e) {
+                // an uncaught exception on the io thread would reach the app's exception handler.
+                // The entry is discarded in case it caused the error
+                closeQuietly();
+                if (batch.pollFirst() != null) {
+                    sDroppedEntries.incrementAndGet();
+                }
+                e.printStackTrace();
+            }
+        }
+        synchronized (mPendingLock) {
+            if (!batch.isEmpty()) {
+                requeueLocked(batch);
+            }
+            if (mWritable != written) {
+                mWritable = written;
+                mPendingLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Puts entries that could not be written back in front of those logged since, so they are
+     * written by the next drain. Only the newest entries are kept while the file cannot be written.
+     * Callers must hold mPendingLock.
+     *
+     * @param unwritten the entries that were not written, oldest first
+     */
+    private void requeueLocked(ArrayDeque<LogEntry> unwritten) {
+        if (mFlushedSequence != 0) {
+            // flushed while the entries were being written
+            Iterator<LogEntry> it = unwritten.iterator();
+            while (it.hasNext()) {
+                if (it.next().sequence < mFlushedSequence) {
+                    it.remove();
+                }
+            }
+        }
+        unwritten.addAll(mPending);
+        mPending = unwritten;
+        while (mPending.size() > MAX_PENDING_ENTRIES) {
+            mPending.pollFirst();
+            sDroppedEntries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Flushes written records and makes them visible to readers
+     *
+     * @throws IOException
+     */
+    private void commitLocked() throws IOException {
+        mOut.flush();
+        synchronized (mSegmentLock) {
+            mCommittedLength = mLogFileLength;
+        }
+    }
+
+    /**
+     * Returns the size at which the log file is sealed into a segment
+     * @return
+     */
+    private long getSegmentSize() {
+        return Math.max(mMaxLogFileSize / 4, 1);
+    }
+
+    /**
+     * Returns the file this process appends to.
+     * Secondary processes write to their own stream so they never contend for the same file.
+     * The process name is read from /proc so this is only called off the main thread.
+     *
+     * @return
+     */
+    private File getStreamFile() {
+        File stream = mStream;
+        if (stream == null) {
+            stream = LogStreams.streamFor(mLogFile, LogMetadata.getProcessName());
+            mStream = stream;
+        }
+        return stream;
+    }
+
+    /**
+     * Returns the file of a sealed segment
+     *
+     * @param number the segment number
+     * @return
+     */
+    private File getSegmentFile(long number) {
+        File stream = getStreamFile();
+        return new File(stream.getParentFile(), stream.getName() + "." + number);
+    }
+
+    /**
+     * Seals the log file into a segment and deletes the oldest segments that no longer fit.
+     *
+     * @throws IOException
+     */
+    private void rollLocked() throws IOException {
+        closeQuietly();
+        File stream = getStreamFile();
+        Checkpoint.clear(stream);
+        mCheckpointOffset = 0;
+        mIndexCheckpointOffset = 0;
+        File sealed = getSegmentFile(mNextSegment);
+        try {
+            mActiveIndex.write(LogIndex.fileFor(sealed));
+        } catch (IOException e) {
+            // the index will be rebuilt when it is needed
+            e.printStackTrace();
+        }
+        FlushMarker flushed = FlushMarker.read(mLogFile);
+        List<File> evicted = new ArrayList<>();
+        synchronized (mSegmentLock) {
+            if (!stream.renameTo(sealed)) {
+                throw new IOException("Failed to seal " + stream);
+            }
+            mNextSegment++;
+            mSealedIndexes.put(sealed, mActiveIndex);
+            mActiveIndex = new LogIndex();
+            mStackOffsets.clear();
+            mSealed.add(sealed);
+            mSealedBytes += mLogFileLength;
+            mLogFileLength = 0;
+            mCommittedLength = 0;
+            pruneFlushedLocked(flushed, evicted);
+            if (mRetentionPolicy == null) {
+                // leave room for the new log file
+                evictLocked(mMaxLogFileSize - getSegmentSize(), evicted);
+            } else {
+                // the compactor makes room once it has removed what the policy drops
+                evictLocked(mMaxLogFileSize, evicted);
+            }
+        }
+        deleteSegments(evicted);
+        compact();
+    }
+
+    /**
+     * Removes the oldest sealed segments until they fit within a limit.
+     * The caller must hold the segment lock.
+     *
+     * @param limit   the maximum bytes the sealed segments may take
+     * @param evicted receives the removed segments which should then be deleted
+     */
+    private void evictLocked(long limit, List<File> evicted) {
+        while (!mSealed.isEmpty() && mSealedBytes > limit) {
+            File oldest = mSealed.remove(0);
+            mSealedBytes -= oldest.length();
+            evicted.add(oldest);
+        }
+    }
+
+    /**
+     * Removes the sealed segments written before another process flushed the log
+     * and corrects the total size for any it already deleted.
+     * The caller must hold the segment lock.
+     *
+     * @param flushed where the log was last flushed
+     * @param evicted receives the removed segments which should then be deleted
+     */
+    private void pruneFlushedLocked(FlushMarker flushed, List<File> evicted) {
+        File stream = getStreamFile();
+        long sealedBytes = 0;
+        Iterator<File> it = mSealed.iterator();
+        while (it.hasNext()) {
+            File f = it.next();
+            if (!f.exists() || flushed.visibleFrom(stream, LogStreams.getSegmentNumber(stream, f)) >= f.length()) {
+                it.remove();
+                evicted.add(f);
+            } else {
+                sealedBytes += f.length();
+            }
+        }
+        mSealedBytes = sealedBytes;
+    }
+
+    /**
+     * Deletes evicted segments and their indexes.
+     * Open snapshots keep their own handles so deleting is safe.
+     *
+     * @param segments
+     */
+    private void deleteSegments(List<File> segments) {
+        for (File f : segments) {
+            mSealedIndexes.remove(f);
+            f.delete();
+            LogIndex.fileFor(f).delete();
+        }
+    }
+
+    /**
+     * Rewrites the sealed segments without the entries the retention policy drops and then
+     * evicts the oldest segments if the log is still too large.
+     * This runs on the compaction thread. Segments are replaced one at a time under the segment
+     * lock so the writer is only blocked while a file is renamed.
+     */
+    private void compactSegments() {
+        RetentionPolicy policy = mRetentionPolicy;
+        if (policy == null || mClosed) {
+            return;
+        }
+        LogSnapshot snapshot = snapshot(false);
+        try {
+            List<LogSnapshot.Segment> segments = snapshot.getSegments();
+            Compactor compactor = new Compactor(policy, segments, System.currentTimeMillis());
+            compactor.measure();
+            for (int s = 0; s < segments.size(); s++) {
+                LogSnapshot.Segment segment = segments.get(s);
+                // a partly flushed segment keeps its offsets so readers can find where the flush ended
+                if (segment.file.equals(getStreamFile()) || segment.start > 0 || compactor.countDropped(s) == 0) {
+                    continue;
+                }
+                File tmp = new File(segment.file.getParentFile(), segment.file.getName() + ".compact");
+                File indexTmp = new File(segment.file.getParentFile(), segment.file.getName() + ".compact.idx");
+                try {
+                    Compactor.Result result = compactor.rewrite(s, tmp);
+                    if (result.kept > 0) {
+                        result.index.write(indexTmp);
+                    }
+                    replaceSegment(segment.file, tmp, indexTmp, result);
+                } finally {
+                    tmp.delete();
+                    indexTmp.delete();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            snapshot.close();
+        }
+        List<File> evicted = new ArrayList<>();
+        synchronized (mSegmentLock) {
+            if (!mClosed) {
+                evictLocked(mMaxLogFileSize - getSegmentSize(), evicted);
+            }
+        }
+        deleteSegments(evicted);
+    }
+
+    /**
+     * Replaces a sealed segment with its compacted copy.
+     * Nothing is replaced if the segment was evicted or the log was flushed in the meantime.
+     *
+     * @param segment   the sealed segment
+     * @param compacted the compacted copy
+     * @param index     the index of the compacted copy
+     * @param result    the result of compacting the segment
+     * @throws IOException
+     */
+    private void replaceSegment(File segment, File compacted, File index, Compactor.Result result) throws IOException {
+        List<File> removed = new ArrayList<>();
+        synchronized (mSegmentLock) {
+            if (mClosed || !mSealed.contains(segment) || !segment.exists()) {
+                return;
+            }
+            long oldLength = segment.length();
+            if (result.kept == 0) {
+                mSealed.remove(segment);
+                mSealedBytes -= oldLength;
+                removed.add(segment);
+            } else {
+                // remove the old index first so a crash between the renames leaves no index,
+                // which is rebuilt from the segment, rather than one with the old offsets
+                File segmentIndex = LogIndex.fileFor(segment);
+                if (segmentIndex.exists() && !segmentIndex.delete()) {
+                    throw new IOException("Failed to remove " + segmentIndex);
+                }
+                if (!compacted.renameTo(segment)) {
+                    throw new IOException("Failed to replace " + segment);
+                }
+                if (!index.renameTo(segmentIndex)) {
+                    segmentIndex.delete();
+                }
+                mSealedIndexes.put(segment, result.index);
+                mSealedBytes += result.length - oldLength;
+            }
+            mGeneration++;
+        }
+        deleteSegments(removed);
+    }
+
+    /**
+     * Deletes the log file and all segments of this process along with the sealed segments
+     * of other processes. Other processes may still be appending to their log files so those are
+     * left for their owners to remove and are hidden from readers by the recorded flush positions.
+     *
+     * @param flushTime the time of the flush
+     */
+    private void deleteAllLocked(long flushTime) {
+        closeQuietly();
+        if (mLogFile == null) {
+            return;
+        }
+        File stream = getStreamFile();
+        FlushMarker flushed = new FlushMarker(flushTime);
+        List<File> others = new ArrayList<>();
+        for (File other : LogStreams.listStreams(mLogFile)) {
+            if (!other.equals(stream)) {
+                markFlushed(other, flushed);
+                others.add(other);
+            }
+        }
+        synchronized (mSegmentLock) {
+            flushed.put(stream, mNextSegment, mLogFileLength);
+        }
+        try {
+            flushed.write(mLogFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (File other : others) {
+            for (File f : LogStreams.listSegments(other)) {
+                if (flushed.visibleFrom(other, LogStreams.getSegmentNumber(other, f)) >= f.length()) {
+                    f.delete();
+                    LogIndex.fileFor(f).delete();
+                }
+            }
+        }
+        synchronized (mSegmentLock) {
+            stream.delete();
+            for (File f : LogStreams.listSegments(stream)) {
+                f.delete();
+                LogIndex.fileFor(f).delete();
+            }
+            mSealed.clear();
+            mSealedIndexes.clear();
+            mActiveIndex = new LogIndex();
+            mStackOffsets.clear();
+            mSealedBytes = 0;
+            mLogFileLength = 0;
+            mCommittedLength = 0;
+        }
+        Checkpoint.clear(stream);
+        mCheckpointOffset = 0;
+        mIndexCheckpointOffset = 0;
+    }
+
+    /**
+     * Records where another process's stream ends.
+     * The stream is read again afterwards in case its owner sealed its log file in the meantime.
+     *
+     * @param stream  the file the other process appends to
+     * @param flushed receives the position
+     */
+    private static void markFlushed(File stream, FlushMarker flushed) {
+        for (int attempt = 1; ; attempt++) {
+            List<File> segments = LogStreams.listSegments(stream);
+            long active = LogStreams.getActiveSegment(stream, segments);
+            long length = stream.length();
+            List<File> after = LogStreams.listSegments(stream);
+            if (attempt == 3 || (segments.equals(after) && active == LogStreams.getActiveSegment(stream, after))) {
+                flushed.put(stream, active, length);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Opens the output stream, recovering the file the first time it is opened
+     *
+     * @throws IOException
+     */
+    private void openLocked() throws IOException {
+        if (mOut != null) {
+            return;
+        }
+        File stream = getStreamFile();
+        if (!mRecovered) {
+            List<File> segments = LogStreams.listSegments(stream);
+            long sealedBytes = 0;
+            for (File f : segments) {
+                sealedBytes += f.length();
+            }
+            // another process may have flushed the log while this one was not running
+            FlushMarker flushed = FlushMarker.read(mLogFile);
+            List<File> evicted = new ArrayList<>();
+            synchronized (mSegmentLock) {
+                if (stream.exists()) {
+                    mNextSegment = LogStreams.getActiveSegment(stream, segments);
+                } else {
+                    long last = segments.isEmpty() ? 0 : LogStreams.getSegmentNumber(stream, segments.get(segments.size() - 1));
+                    mNextSegment = Math.max(last, LogStreams.readActiveSegment(stream)) + 1;
+                }
+                mSealed.clear();
+                mSealed.addAll(segments);
+                mSealedBytes = sealedBytes;
+                pruneFlushedLocked(flushed, evicted);
+            }
+            deleteSegments(evicted);
+            if (stream.exists() && flushed.visibleFrom(stream, mNextSegment) >= stream.length()) {
+                stream.delete();
+            } else if (stream.exists() && LogStreams.readActiveSegment(stream) != mNextSegment) {
+                // written before the number was recorded
+                LogStreams.writeActiveSegment(stream, mNextSegment);
+            }
+        }
+        if (!stream.exists()) {
+            File dir = stream.getParentFile();
+            if (dir != null) {
+                dir.mkdirs();
+            }
+            // the new log file must not take a number whose records were flushed
+            FlushMarker flushed = FlushMarker.read(mLogFile);
+            synchronized (mSegmentLock) {
+                mNextSegment = Math.max(mNextSegment, flushed.firstUnflushedSegment(stream));
+            }
+            LogStreams.writeActiveSegment(stream, mNextSegment);
+            Checkpoint.clear(stream);
+            mCheckpointOffset = 0;
+            mIndexCheckpointOffset = 0;
+        } else if (!mRecovered) {
+            recover();
+            // only the records after the saved index need to be read
+            long length = stream.length();
+            Checkpoint.Saved saved = Checkpoint.readIndex(stream, mNextSegment);
+            if (saved != null && (saved.offset > length || !isRecordBoundary(saved.offset, length))) {
+                saved = null;
+            }
+            LogIndex index = saved != null ? saved.index : new LogIndex();
+            mStackOffsets = saved != null ? saved.stackOffsets : new StackOffsets();
+            mIndexCheckpointOffset = saved != null ? saved.offset : 0;
+            scanSegment(stream, mIndexCheckpointOffset, index, mStackOffsets);
+            synchronized (mSegmentLock) {
+                mActiveIndex = index;
+            }
+        }
+        if (!mRecovered) {
+            // entries may have aged out while the app was not running
+            compact();
+        }
+        mRecovered = true;
+        mClosed = false;
+        mOut = new BufferedOutputStream(new FileOutputStream(stream, true));
+        mLogFileLength = stream.length();
+        synchronized (mSegmentLock) {
+            mCommittedLength = mLogFileLength;
+        }
+    }
+
+    /**
+     * Verifies the records written since the last checkpoint and truncates a torn tail.
+     * Logs written before records were framed are converted.
+     * Sealed segments are complete so only the log file needs to be checked.
+     *
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        File stream = getStreamFile();
+        long length = stream.length();
+        if (length > 0 && !isRecordBoundary(0, length)) {
+            migrateLegacy();
+            return;
+        }
+        long start = Checkpoint.read(stream);
+        if (start > length || !isRecordBoundary(start, length)) {
+            start = 0;
+        }
+        InputStream in = new FileInputStream(stream);
+        long good;
+        boolean torn;
+        try {
+            skipFully(in, start);
+            RecordReader reader = new RecordReader(in, start);
+            while (reader.next()) {
+                // only verifying
+            }
+            good = reader.offset();
+            torn = reader.isCorrupt();
+        } finally {
+            in.close();
+        }
+        if (torn) {
+            RandomAccessFile raf = new RandomAccessFile(stream, "rw");
+            try {
+                raf.setLength(good);
+            } finally {
+                raf.close();
+            }
+        }
+        writeCheckpoint(good);
+    }
+
+    /**
+     * Checks if a record starts at the offset.
+     * The end of the file is a boundary if it follows a complete line.
+     *
+     * @param offset the offset to check
+     * @param length the file length
+     * @return
+     * @throws IOException
+     */
+    private boolean isRecordBoundary(long offset, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(getStreamFile(), "r");
+        try {
+            if (offset > 0) {
+                raf.seek(offset - 1);
+                if (raf.read() != '\n') {
+                    return false;
+                }
+            }
+            if (offset == length) {
+                return true;
+            }
+            byte[] header = new byte[RecordWriter.HEADER_LENGTH];
+            raf.seek(offset);
+            int read = raf.read(header);
+            return RecordReader.isRecordHeader(header, read);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Rewrites a log file from before records were framed
+     *
+     * @throws IOException
+     */
+    private void migrateLegacy() throws IOException {
+        File stream = getStreamFile();
+        List<LogEntry> logs = LogFormat.readLegacy(stream);
+        File tmp = new File(stream.getParentFile(), stream.getName() + ".tmp");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+        try {
+            for (int i = logs.size() - 1; i >= 0; i--) {
+                mWriter.encode(logs.get(i));
+                mRecordWriter.write(out, mWriter.buffer(), mWriter.length() - 1);
+            }
+        } finally {
+            out.close();
+        }
+        Checkpoint.clear(stream);
+        mCheckpointOffset = 0;
+        mIndexCheckpointOffset = 0;
+        if (!tmp.renameTo(stream)) {
+            stream.delete();
+            if (!tmp.renameTo(stream)) {
+                throw new IOException("Failed to replace " + stream);
+            }
+        }
+        writeCheckpoint(stream.length());
+    }
+
+    /**
+     * Indexes the records in a segment
+     *
+     * @param segment
+     * @return
+     * @throws IOException
+     */
+    private static LogIndex buildIndex(File segment) throws IOException {
+        LogIndex index = new LogIndex();
+        scanSegment(segment, 0, index, null);
+        return index;
+    }
+
+    /**
+     * Reads a segment from an offset to the end, indexing each record and noting where each distinct stack trace is stored
+     *
+     * @param segment      the segment file
+     * @param start        the offset of the first record to read
+     * @param index        receives the tokens of each record
+     * @param stackOffsets receives the offset of the record holding each stack trace. May be null
+     * @throws IOException
+     */
+    private static void scanSegment(File segment, long start, LogIndex index, StackOffsets stackOffsets) throws IOException {
+        InputStream in = new FileInputStream(segment);
+        try {
+            skipFully(in, start);
+            scanRecords(new RecordReader(in, start), start, index, stackOffsets);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads records from an offset in a segment to the end, indexing each and noting where each distinct stack trace is stored
+     *
+     * @param records      reads the segment from the offset
+     * @param start        the offset of the first record
+     * @param index        receives the tokens of each record
+     * @param stackOffsets receives the offset of the record holding each stack trace and holds those before the offset. May be null
+     * @throws IOException
+     */
+    private static void scanRecords(RecordReader records, long start, LogIndex index, StackOffsets stackOffsets) throws IOException {
+        JsonLineReader reader = new JsonLineReader();
+        Map<Long, String> stacks = stackOffsets != null ? stackOffsets.byOffset() : new HashMap<Long, String>();
+        long offset = start;
+        while (records.next()) {
+            LogEntry entry = reader.parse(new String(records.payload(), 0, records.payloadLength(), UTF8));
+            if (entry != null) {
+                resolveStack(entry, offset, stacks);
+                index.add(entry, offset);
+                if (stackOffsets != null && entry.stackAt < 0) {
+                    stackOffsets.reference(entry.stackFingerprint, entry.getDetails(), offset);
+                }
+            }
+            offset = records.offset();
+        }
+    }
+
+    /**
+     * Fills in the details of an entry whose stack trace was stored by reference.
+     * Entries must be visited in the order they appear in the segment.
+     *
+     * @param entry  the entry read from the segment
+     * @param offset the offset of the entry's record
+     * @param stacks the stack traces seen so far in the segment by record offset
+     */
+    static void resolveStack(LogEntry entry, long offset, Map<Long, String> stacks) {
+        if (entry.stackAt >= 0) {
+            entry.setDetails(stacks.get(entry.stackAt));
+        } else if (entry.stackFingerprint != 0 && entry.getDetails() != null) {
+            stacks.put(offset, entry.getDetails());
+        }
+    }
+
+    /**
+     * Returns the index of a sealed segment, loading or rebuilding it if necessary
+     *
+     * @param segment
+     * @return
+     * @throws IOException
+     */
+    private LogIndex getSealedIndex(File segment) throws IOException {
+        LogIndex index = mSealedIndexes.get(segment);
+        if (index != null) {
+            return index;
+        }
+        File indexFile = LogIndex.fileFor(segment);
+        try {
+            index = LogIndex.read(indexFile);
+        } catch (IOException e) {
+            index = buildIndex(segment);
+            try {
+                index.write(indexFile);
+            } catch (IOException e2) {
+                // keep it in memory only
+            }
+        }
+        // a compacted copy may have replaced the segment while this one was loading
+        LogIndex current = mSealedIndexes.putIfAbsent(segment, index);
+        return current != null ? current : index;
+    }
+
+    private void writeCheckpoint(long offset) throws IOException {
+        Checkpoint.write(getStreamFile(), offset);
+        mCheckpointOffset = offset;
+    }
+
+    /**
+     * Saves the index of the log file so opening it again only reads the records written after now
+     *
+     * @throws IOException
+     */
+    private void writeIndexCheckpoint() throws IOException {
+        LogIndex index;
+        long segment;
+        synchronized (mSegmentLock) {
+            index = mActiveIndex;
+            segment = mNextSegment;
+        }
+        synchronized (index) {
+            Checkpoint.writeIndex(getStreamFile(), segment, mLogFileLength, index, mStackOffsets);
+        }
+        mIndexCheckpointOffset = mLogFileLength;
+    }
+
+    private static void skipFully(InputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            bytes -= skipped;
+        }
+    }
+
+    private void closeQuietly() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mOut = null;
+        }
+    }
+
+    /**
+     * Takes a snapshot of the committed segments.
+     * Pending entries are written and the log is recovered first.
+     *
+     * @param allProcesses true to include the streams written by other processes
+     * @return the snapshot which must be closed when finished
+     */
+    LogSnapshot snapshot(boolean allProcesses) {
+        runOnIoThread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+                synchronized (FileLogger.this) {
+                    try {
+                        openLocked();
+                    } catch (IOException e) {
+                        closeQuietly();
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, SYNC_TIMEOUT);
+        File stream = getStreamFile();
+        FlushMarker flushed = FlushMarker.read(mLogFile);
+        List<LogSnapshot.Segment> segments = new ArrayList<>();
+        long generation;
+        synchronized (mSegmentLock) {
+            generation = mGeneration;
+            for (File f : mSealed) {
+                long number = LogStreams.getSegmentNumber(stream, f);
+                long start = flushed.visibleFrom(stream, number);
+                long length = f.length();
+                if (start >= length) {
+                    // flushed by another process
+                    continue;
+                }
+                try {
+                    segments.add(new LogSnapshot.Segment(f, new FileInputStream(f), length, null, number, start));
+                } catch (FileNotFoundException e) {
+                    // the segment was deleted
+                }
+            }
+            long start = flushed.visibleFrom(stream, mNextSegment);
+            if (mCommittedLength > start) {
+                try {
+                    segments.add(new LogSnapshot.Segment(stream, new FileInputStream(stream), mCommittedLength, mActiveIndex, mNextSegment, start));
+                } catch (FileNotFoundException e) {
+                    // the log was flushed
+                }
+            }
+        }
+        List<List<LogSnapshot.Segment>> others = new ArrayList<>();
+        if (allProcesses) {
+            for (File other : LogStreams.listStreams(mLogFile)) {
+                if (!other.equals(stream)) {
+                    others.add(openStream(other, flushed));
+                }
+            }
+        }
+        return new LogSnapshot(segments, others, generation);
+    }
+
+    /**
+     * Opens the segments of a stream written by another process.
+     * The other process may seal its log file while the segments are being opened so the
+     * segments are listed again afterwards and the stream is reopened if they changed.
+     * The log file is read up to its current size and any record still being written is ignored.
+     *
+     * @param stream  the file the other process appends to
+     * @param flushed where the log was last flushed
+     * @return the segments ordered oldest first
+     */
+    private static List<LogSnapshot.Segment> openStream(File stream, FlushMarker flushed) {
+        for (int attempt = 1; ; attempt++) {
+            List<LogSnapshot.Segment> segments = new ArrayList<>();
+            List<File> files = LogStreams.listSegments(stream);
+            long active = LogStreams.getActiveSegment(stream, files);
+            for (File f : files) {
+                openSegment(f, LogStreams.getSegmentNumber(stream, f), flushed.visibleFrom(stream, LogStreams.getSegmentNumber(stream, f)), segments);
+            }
+            openSegment(stream, active, flushed.visibleFrom(stream, active), segments);
+            if (attempt == 3 || files.equals(LogStreams.listSegments(stream))) {
+                return segments;
+            }
+            LogSnapshot.close(segments);
+        }
+    }
+
+    /**
+     * Opens a segment at its current size
+     *
+     * @param file     the segment file
+     * @param number   the segment number
+     * @param start    the offset of the first record written after the log was flushed
+     * @param segments receives the segment if it exists and has records written after the flush
+     */
+    private static void openSegment(File file, long number, long start, List<LogSnapshot.Segment> segments) {
+        if (start == Long.MAX_VALUE) {
+            return;
+        }
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                long length = in.getChannel().size();
+                if (length > start) {
+                    segments.add(new LogSnapshot.Segment(file, in, length, null, number, start));
+                } else {
+                    in.close();
+                }
+            } catch (IOException e) {
+                in.close();
+            }
+        } catch (IOException e) {
+            // the segment was deleted
+        }
+    }
+
+    /**
+     * Returns the index of each segment in a snapshot
+     *
+     * @param snapshot
+     * @return null if a segment was replaced by a compacted copy after the snapshot was taken
+     * @throws IOException
+     */
+    private LogIndex[] loadIndexes(LogSnapshot snapshot) throws IOException {
+        List<LogSnapshot.Segment> segments = snapshot.getSegments();
+        LogIndex[] indexes = new LogIndex[segments.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            LogSnapshot.Segment segment = segments.get(i);
+            indexes[i] = segment.index != null ? segment.index : getSealedIndex(segment.file);
+        }
+        synchronized (mSegmentLock) {
+            return snapshot.getGeneration() == mGeneration ? indexes : null;
+        }
+    }
+
+    /**
+     * Returns a list of log entries with the newest entries first.
+     * Entries logged by other processes sharing the log file are merged in by time.
+     * This reads from the disk so it should not be called on the main thread.
+     * @return
+     */
+    public List<LogEntry> getLogEntries() {
+        List<LogEntry> logs = new ArrayList<>();
+        if (mLogFile != null) {
+            LogSnapshot snapshot = snapshot(true);
+            try {
+                LogMerger merger = new LogMerger(snapshot.getStreams());
+                LogEntry entry;
+                while ((entry = merger.next()) != null) {
+                    if (Thread.interrupted()) break;
+                    logs.add(entry);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                snapshot.close();
+            }
+            Collections.reverse(logs);
+        } else if (mSink != null) {
+            mSink.println(LogLevel.Warning, FileLogger.class.getName(), "The log file has not been configured and cannot be read", null, NO_FIELDS);
+        }
+        return logs;
+    }
+
+    /**
+     * Searches the retained log history using the token index.
+     * Terms are case insensitive whole words found in the message, tag or details.
+     * Terms separated by spaces or AND must all match, OR separates alternatives
+     * and NOT excludes entries containing a term.
+     * A quoted phrase matches its words next to each other and in order.
+     * This reads from the disk so it should not be called on the main thread.
+     *
+     * @param query for example "timeout AND sync"
+     * @return the matching log entries with the newest entries first
+     */
+    public List<LogEntry> search(String query) {
+        List<LogEntry> logs = new ArrayList<>();
+        LogQuery q = LogQuery.parse(query == null ? "" : query);
+        if (mLogFile == null || q.isEmpty()) {
+            return logs;
+        }
+        LogSnapshot snapshot = snapshot(true);
+        try {
+            LogIndex[] indexes = loadIndexes(snapshot);
+            while (indexes == null) {
+                // the offsets in a compacted copy do not match the snapshot
+                snapshot.close();
+                snapshot = snapshot(true);
+                indexes = loadIndexes(snapshot);
+            }
+            JsonLineReader reader = new JsonLineReader();
+            List<List<LogSnapshot.Segment>> streams = snapshot.getStreams();
+            List<File> others = new ArrayList<>();
+            for (int p = 0; p < streams.size(); p++) {
+                List<LogSnapshot.Segment> segments = streams.get(p);
+                for (int s = segments.size() - 1; s >= 0; s--) {
+                    // other processes may replace their segments at any time so their indexes are checked against the snapshot
+                    LogIndex index = p == 0 ? indexes[s] : mOtherIndexes.get(segments.get(s));
+                    searchSegment(q, index, segments.get(s), reader, logs);
+                    if (p > 0) {
+                        others.add(segments.get(s).file);
+                    }
+                }
+            }
+            mOtherIndexes.retain(others);
+            if (streams.size() > 1) {
+                Collections.sort(logs, Collections.reverseOrder(LogMerger.ENTRY_ORDER));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            snapshot.close();
+        }
+        return logs;
+    }
+
+    /**
+     * Reads the entries in a segment that match a query
+     *
+     * @param q       the query
+     * @param index   the index of the segment
+     * @param segment the segment
+     * @param reader  parses the entries
+     * @param logs    receives the matching entries with the newest first
+     * @throws IOException
+     */
+    private static void searchSegment(LogQuery q, LogIndex index, LogSnapshot.Segment segment, JsonLineReader reader, List<LogEntry> logs) throws IOException {
+        long[] offsets;
+        synchronized (index) {
+            offsets = q.match(index);
+        }
+        // the index only narrows phrases down to entries holding their tokens
+        boolean phrases = q.hasPhrases();
+        FileChannel channel = segment.in.getChannel();
+        for (int i = offsets.length - 1; i >= 0; i--) {
+            if (offsets[i] >= segment.length || offsets[i] < segment.start) {
+                // written after the snapshot was taken or before the log was flushed
+                continue;
+            }
+            byte[] payload = RecordReader.readAt(channel, offsets[i]);
+            LogEntry entry = payload != null ? reader.parse(new String(payload, UTF8)) : null;
+            if (entry == null) {
+                continue;
+            }
+            if (entry.stackAt >= 0) {
+                byte[] stackPayload = RecordReader.readAt(channel, entry.stackAt);
+                LogEntry stackEntry = stackPayload != null ? reader.parse(new String(stackPayload, UTF8)) : null;
+                entry.setDetails(stackEntry != null ? stackEntry.getDetails() : null);
+            }
+            if (phrases && !q.accept(entry)) {
+                continue;
+            }
+            logs.add(entry);
+        }
+    }
+
+    /**
+     * Streams a diagnostics bundle to an output stream.
+     * See {@link #exportBundle(WritableByteChannel, File[])}
+     *
+     * @param out         the stream to write to. It is not closed.
+     * @param stacktraces stacktrace files to include. May be null.
+     * @throws IOException
+     */
+    public void exportBundle(OutputStream out, File[] stacktraces) throws IOException {
+        exportBundle(Channels.newChannel(out), stacktraces);
+        out.flush();
+    }
+
+    /**
+     * Streams a diagnostics bundle to a channel such as a {@link FileChannel}.
+     * The bundle is an uncompressed tar archive containing manifest.json, the committed log
+     * segments of every process under logs/ and the stacktrace files under stacktraces/.
+     * Records hidden by a flush are left out. The manifest gives the offset in the original segment
+     * each archived segment starts at, so stack trace offsets can be resolved by subtracting it.
+     * Files are copied directly between channels so memory use is constant regardless of log size.
+     *
+     * @param out         the channel to write to. It is not closed.
+     * @param stacktraces stacktrace files to include. May be null.
+     * @throws IOException
+     */
+    public void exportBundle(WritableByteChannel out, File[] stacktraces) throws IOException {
+        List<File> traceFiles = new ArrayList<>();
+        if (stacktraces != null) {
+            for (File f : stacktraces) {
+                if (f.isFile()) {
+                    traceFiles.add(f);
+                }
+            }
+        }
+        LogSnapshot snapshot = mLogFile != null ? snapshot(true) : new LogSnapshot(new ArrayList<LogSnapshot.Segment>());
+        try {
+            long now = System.currentTimeMillis();
+            StringBuilder manifest = new StringBuilder();
+            manifest.append("{\"format\":1");
+            manifest.append(",\"created\":").append(now);
+            manifest.append(",\"logFile\":").append(JsonLineWriter.quote(mLogFile != null ? mLogFile.getName() : null));
+            manifest.append(",\"maxLogFileSize\":").append(mMaxLogFileSize);
+            manifest.append(",\"minLoggingLevel\":").append(JsonLineWriter.quote(mMinLoggingLevel.getLabel()));
+            manifest.append(",\"flushed\":").append(mLogFile != null ? FlushMarker.read(mLogFile).getTime() : 0);
+            manifest.append(",\"segments\":[");
+            List<LogSnapshot.Segment> segments = new ArrayList<>();
+            for (List<LogSnapshot.Segment> stream : snapshot.getStreams()) {
+                segments.addAll(stream);
+            }
+            for (int i = 0; i < segments.size(); i++) {
+                LogSnapshot.Segment segment = segments.get(i);
+                manifest.append(i > 0 ? "," : "").append("{\"name\":")
+                        .append(JsonLineWriter.quote("logs/" + segment.file.getName()))
+                        .append(",\"size\":").append(segment.length - segment.start);
+                if (segment.start > 0) {
+                    // the records before this were flushed and are not archived
+                    manifest.append(",\"start\":").append(segment.start);
+                }
+                manifest.append('}');
+            }
+            manifest.append("],\"stacktraces\":[");
+            for (int i = 0; i < traceFiles.size(); i++) {
+                manifest.append(i > 0 ? "," : "").append("{\"name\":")
+                        .append(JsonLineWriter.quote("stacktraces/" + traceFiles.get(i).getName()))
+                        .append(",\"size\":").append(traceFiles.get(i).length()).append('}');
+            }
+            manifest.append("]}\n");
+
+            TarWriter tar = new TarWriter(out);
+            tar.addBytes("manifest.json", manifest.toString().getBytes(UTF8), now);
+            for (LogSnapshot.Segment segment : segments) {
+                tar.addFile("logs/" + segment.file.getName(), segment.in.getChannel(), segment.start, segment.length - segment.start, segment.file.lastModified());
+            }
+            for (File f : traceFiles) {
+                // stacktraces are opened one at a time so a large number of them does not exhaust file descriptors
+                FileInputStream in;
+                try {
+                    in = new FileInputStream(f);
+                } catch (FileNotFoundException e) {
+                    // the stacktrace was deleted
+                    continue;
+                }
+                try {
+                    tar.addFile("stacktraces/" + f.getName(), in.getChannel(), in.getChannel().size(), f.lastModified());
+                } finally {
+                    in.close();
+                }
+            }
+            tar.finish();
+        } finally {
+            snapshot.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Records where each stream of a shared log ended when the log was last flushed.
+ * Flushing from one process cannot safely delete the file another process is appending to,
+ * so the position of every stream is saved instead: the number of the segment being written
+ * and its length. Records before that position are hidden from readers and each process removes
+ * its own flushed segments the next time it opens or seals a segment.
+ *
+ * Positions do not depend on the wall clock so setting the clock back after a flush cannot
+ * hide entries logged since.
+ */
+class FlushMarker {
+
+    private static final String EXT = "flushed";
+    private static final long MAGIC = 0x4c4f47464c555348L;
+    private final long mTime;
+    // the segment number and offset each stream was flushed up to by stream name
+    private final Map<String, long[]> mPositions = new HashMap<>();
+
+    /**
+     * @param time when the log was flushed. This is only kept for diagnostics
+     */
+    FlushMarker(long time) {
+        mTime = time;
+    }
+
+    /**
+     * Returns the file recording the last flush of a log
+     *
+     * @param logFile the configured log file
+     * @return
+     */
+    public static File fileFor(File logFile) {
+        return new File(logFile.getParentFile(), logFile.getName() + "." + EXT);
+    }
+
+    /**
+     * Returns when the log was flushed
+     *
+     * @return 0 if it has not been flushed
+     */
+    public long getTime() {
+        return mTime;
+    }
+
+    /**
+     * Records the position a stream was flushed up to
+     *
+     * @param stream  the file the stream appends to
+     * @param segment the number of the segment being written. Earlier segments are flushed entirely
+     * @param offset  the length of that segment
+     */
+    public void put(File stream, long segment, long offset) {
+        mPositions.put(stream.getName(), new long[]{segment, offset});
+    }
+
+    /**
+     * Returns the offset of the first record in a segment that was written after the flush
+     *
+     * @param stream  the file the stream appends to
+     * @param segment the segment number
+     * @return 0 if the whole segment is visible or {@link Long#MAX_VALUE} if it was flushed entirely
+     */
+    public long visibleFrom(File stream, long segment) {
+        long[] position = mPositions.get(stream.getName());
+        if (position == null || segment > position[0]) {
+            return 0;
+        }
+        return segment == position[0] ? position[1] : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the lowest number a new log file of a stream may take without its records being hidden
+     *
+     * @param stream the file the stream appends to
+     * @return
+     */
+    public long firstUnflushedSegment(File stream) {
+        long[] position = mPositions.get(stream.getName());
+        if (position == null) {
+            return 0;
+        }
+        return position[1] > 0 ? position[0] + 1 : position[0];
+    }
+
+    /**
+     * Reads the last flush of a log
+     *
+     * @param logFile the configured log file
+     * @return an empty marker if the log has not been flushed or the marker is damaged
+     */
+    public static FlushMarker read(File logFile) {
+        File file = fileFor(logFile);
+        if (!file.exists()) {
+            return new FlushMarker(0);
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            byte[] bytes;
+            try {
+                bytes = new byte[(int) Math.min(raf.length(), 1024 * 1024)];
+                raf.readFully(bytes);
+            } finally {
+                raf.close();
+            }
+            if (bytes.length < 8) {
+                return new FlushMarker(0);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readLong() != MAGIC) {
+                return new FlushMarker(0);
+            }
+            FlushMarker marker = new FlushMarker(in.readLong());
+            int streams = in.readInt();
+            for (int i = 0; i < streams; i++) {
+                String name = in.readUTF();
+                marker.mPositions.put(name, new long[]{in.readLong(), in.readLong()});
+            }
+            if (in.readLong() == crc.getValue()) {
+                return marker;
+            }
+        } catch (IOException e) {
+            // treat as never flushed
+        }
+        return new FlushMarker(0);
+    }
+
+    /**
+     * Saves the marker.
+     * The file is replaced atomically so other processes never read a partial marker.
+     *
+     * @param logFile the configured log file
+     * @throws IOException
+     */
+    public void write(File logFile) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(MAGIC);
+        out.writeLong(mTime);
+        out.writeInt(mPositions.size());
+        for (Map.Entry<String, long[]> e : mPositions.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeLong(e.getValue()[0]);
+            out.writeLong(e.getValue()[1]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        File file = fileFor(logFile);
+        // each process uses its own temporary file in case two flush at once
+        File tmp = new File(file.getParentFile(), file.getName() + "." + LogMetadata.getProcessId() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.write(bytes.toByteArray());
+            raf.setLength(bytes.size());
+        } finally {
+            raf.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to write " + file);
+        }
+    }
+}
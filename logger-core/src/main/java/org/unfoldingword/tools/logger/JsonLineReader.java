@@ -0,0 +1,266 @@
+package org.unfoldingword.tools.logger;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Parses log entries written by {@link JsonLineWriter}.
+ * Unknown keys are skipped so newer logs can be read by older readers.
+ * Instances are not thread safe.
+ */
+public class JsonLineReader {
+
+    private final StringBuilder mScratch = new StringBuilder();
+    private final List<LogField> mFields = new ArrayList<>();
+    private String mLine;
+    private int mPos;
+
+    /**
+     * Parses a single line
+     *
+     * @param line the json line without the trailing newline
+     * @return null if the line is not a valid log entry
+     */
+    public LogEntry parse(String line) {
+        mLine = line;
+        mPos = 0;
+        mFields.clear();
+        try {
+            long time = 0;
+            LogLevel level = null;
+            String tag = null;
+            String message = null;
+            String details = null;
+            long stack = 0;
+            long stackAt = -1;
+            long sequence = 0;
+            long pid = 0;
+            long tid = 0;
+            String thread = null;
+
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() != '}') {
+                do {
+                    skipWhitespace();
+                    String key = readString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    if (key.equals("time")) {
+                        time = readLong();
+                    } else if (key.equals("level")) {
+                        String label = readString();
+                        level = label != null ? LogLevel.getLevel(label) : null;
+                    } else if (key.equals("seq")) {
+                        sequence = readLong();
+                    } else if (key.equals("pid")) {
+                        pid = readLong();
+                    } else if (key.equals("tid")) {
+                        tid = readLong();
+                    } else if (key.equals("thread")) {
+                        thread = readString();
+                    } else if (key.equals("tag")) {
+                        tag = readString();
+                    } else if (key.equals("message")) {
+                        message = readString();
+                    } else if (key.equals("details")) {
+                        details = readString();
+                    } else if (key.equals("stack")) {
+                        String hex = readString();
+                        if (hex != null && hex.length() == 16) {
+                            stack = (Long.parseLong(hex.substring(0, 8), 16) << 32) | Long.parseLong(hex.substring(8), 16);
+                        }
+                    } else if (key.equals("stackAt")) {
+                        stackAt = readLong();
+                    } else if (key.equals("fields")) {
+                        readFields();
+                    } else {
+                        skipValue();
+                    }
+                    skipWhitespace();
+                } while (consume(','));
+            }
+            expect('}');
+            if (level == null) {
+                return null;
+            }
+            LogEntry entry = new LogEntry(new Date(time), level, tag, message, details,
+                    mFields.toArray(new LogField[mFields.size()]));
+            entry.stackFingerprint = stack;
+            entry.stackAt = details == null ? stackAt : -1;
+            entry.sequence = sequence;
+            entry.processId = (int) pid;
+            entry.threadId = tid;
+            entry.threadName = thread;
+            return entry;
+        } catch (IllegalStateException | IndexOutOfBoundsException | NumberFormatException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    private void readFields() {
+        expect('{');
+        skipWhitespace();
+        if (consume('}')) {
+            return;
+        }
+        do {
+            skipWhitespace();
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            char c = peek();
+            if (c == '"') {
+                mFields.add(LogField.kv(key, readString()));
+            } else if (c == 't' || c == 'f') {
+                mFields.add(LogField.kv(key, readLiteral().equals("true")));
+            } else if (c == 'n') {
+                readLiteral();
+                mFields.add(LogField.kv(key, (String) null));
+            } else {
+                String number = readNumber();
+                if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+                    mFields.add(LogField.kv(key, Double.parseDouble(number)));
+                } else {
+                    mFields.add(LogField.kv(key, Long.parseLong(number)));
+                }
+            }
+            skipWhitespace();
+        } while (consume(','));
+        expect('}');
+    }
+
+    private void skipValue() {
+        char c = peek();
+        if (c == '"') {
+            readString();
+        } else if (c == '{' || c == '[') {
+            char close = c == '{' ? '}' : ']';
+            mPos++;
+            skipWhitespace();
+            if (consume(close)) {
+                return;
+            }
+            do {
+                skipWhitespace();
+                if (close == '}') {
+                    readString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                }
+                skipValue();
+                skipWhitespace();
+            } while (consume(','));
+            expect(close);
+        } else if (c == 't' || c == 'f' || c == 'n') {
+            readLiteral();
+        } else {
+            readNumber();
+        }
+    }
+
+    private String readString() {
+        if (peek() == 'n') {
+            if (!readLiteral().equals("null")) {
+                throw new IllegalStateException("Expected a string");
+            }
+            return null;
+        }
+        expect('"');
+        mScratch.setLength(0);
+        while (true) {
+            char c = mLine.charAt(mPos++);
+            if (c == '"') {
+                return mScratch.toString();
+            } else if (c == '\\') {
+                char e = mLine.charAt(mPos++);
+                switch (e) {
+                    case 'n':
+                        mScratch.append('\n');
+                        break;
+                    case 'r':
+                        mScratch.append('\r');
+                        break;
+                    case 't':
+                        mScratch.append('\t');
+                        break;
+                    case 'b':
+                        mScratch.append('\b');
+                        break;
+                    case 'f':
+                        mScratch.append('\f');
+                        break;
+                    case 'u':
+                        mScratch.append((char) Integer.parseInt(mLine.substring(mPos, mPos + 4), 16));
+                        mPos += 4;
+                        break;
+                    default:
+                        mScratch.append(e);
+                }
+            } else {
+                mScratch.append(c);
+            }
+        }
+    }
+
+    private long readLong() {
+        return Long.parseLong(readNumber());
+    }
+
+    private String readNumber() {
+        int start = mPos;
+        while (mPos < mLine.length()) {
+            char c = mLine.charAt(mPos);
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                mPos++;
+            } else {
+                break;
+            }
+        }
+        if (start == mPos) {
+            throw new IllegalStateException("Expected a number at " + mPos);
+        }
+        return mLine.substring(start, mPos);
+    }
+
+    private String readLiteral() {
+        int start = mPos;
+        while (mPos < mLine.length() && Character.isLetter(mLine.charAt(mPos))) {
+            mPos++;
+        }
+        String literal = mLine.substring(start, mPos);
+        if (!literal.equals("true") && !literal.equals("false") && !literal.equals("null")) {
+            throw new IllegalStateException("Unexpected literal " + literal);
+        }
+        return literal;
+    }
+
+    private char peek() {
+        return mLine.charAt(mPos);
+    }
+
+    private boolean consume(char c) {
+        if (mPos < mLine.length() && mLine.charAt(mPos) == c) {
+            mPos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw new IllegalStateException("Expected '" + c + "' at " + mPos);
+        }
+    }
+
+    private void skipWhitespace() {
+        while (mPos < mLine.length() && mLine.charAt(mPos) <= ' ') {
+            mPos++;
+        }
+    }
+}
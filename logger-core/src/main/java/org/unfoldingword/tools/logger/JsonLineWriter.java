@@ -0,0 +1,325 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes log entries as newline delimited json.
+ * The utf-8 output is built in a buffer that is reused between entries so encoding does not
+ * allocate intermediate strings. Instances are not thread safe.
+ *
+ * Each line looks like
+ * <pre>
+ * {"time":1466208000000,"level":"E","seq":42,"pid":1234,"tid":1,"thread":"main","tag":"Sync","message":"failed","details":"...","stack":"8f0c...","fields":{"userId":5}}
+ * </pre>
+ * An entry whose stack trace is identical to an earlier one in the same segment is written with
+ * "stackAt" holding the offset of that earlier record instead of "details".
+ * Strings longer than {@link #MAX_STRING_LENGTH} characters are cut short and end with "..." so a
+ * single huge message cannot exhaust the memory of the io thread.
+ */
+public class JsonLineWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final int INITIAL_CAPACITY = 512;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int CHUNK_LENGTH = 1024;
+    public static final int MAX_STRING_LENGTH = 1024 * 1024;
+    private byte[] mBuffer = new byte[INITIAL_CAPACITY];
+    private int mLength = 0;
+
+    /**
+     * Encodes an entry into the buffer, replacing any previous content.
+     *
+     * @param entry the entry to encode
+     * @return this writer
+     */
+    public JsonLineWriter encode(LogEntry entry) {
+        return encode(entry, -1);
+    }
+
+    /**
+     * Encodes an entry into the buffer, replacing any previous content.
+     *
+     * @param entry   the entry to encode
+     * @param stackAt the offset of an earlier record in the same segment that holds an identical
+     *                stack trace, or -1. If given the details are written as a reference to that record.
+     * @return this writer
+     */
+    JsonLineWriter encode(LogEntry entry, long stackAt) {
+        mLength = 0;
+        if (mBuffer.length > MAX_RETAINED_CAPACITY) {
+            // don't hold on to the memory used by an unusually large entry
+            mBuffer = new byte[INITIAL_CAPACITY];
+        }
+        writeByte('{');
+        writeKey("time", true);
+        writeLong(entry.date != null ? entry.date.getTime() : 0);
+        writeKey("level", false);
+        writeString(entry.level != null ? entry.level.getLabel() : null);
+        if (entry.sequence != 0) {
+            writeKey("seq", false);
+            writeLong(entry.sequence);
+        }
+        if (entry.processId != 0) {
+            writeKey("pid", false);
+            writeLong(entry.processId);
+        }
+        if (entry.threadName != null) {
+            writeKey("tid", false);
+            writeLong(entry.threadId);
+            writeKey("thread", false);
+            writeString(entry.threadName);
+        }
+        writeKey("tag", false);
+        writeString(entry.classPath);
+        writeKey("message", false);
+        writeString(entry.message);
+        String details = entry.getDetails();
+        if (entry.stackFingerprint != 0 && stackAt >= 0) {
+            writeKey("stackAt", false);
+            writeLong(stackAt);
+        } else if (details != null && !details.isEmpty()) {
+            writeKey("details", false);
+            writeString(details);
+        }
+        if (entry.stackFingerprint != 0) {
+            writeKey("stack", false);
+            writeHex(entry.stackFingerprint);
+        }
+        java.util.List<LogField> fields = entry.getFields();
+        if (!fields.isEmpty()) {
+            writeKey("fields", false);
+            writeByte('{');
+            for (int i = 0; i < fields.size(); i++) {
+                LogField field = fields.get(i);
+                writeKey(field.key, i == 0);
+                writeValue(field);
+            }
+            writeByte('}');
+        }
+        writeByte('}');
+        writeByte('\n');
+        return this;
+    }
+
+    /**
+     * Returns the internal buffer. Only the first {@link #length()} bytes are valid.
+     * @return
+     */
+    public byte[] buffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Returns the number of encoded bytes including the trailing newline
+     * @return
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * Writes the encoded bytes to a stream
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(mBuffer, 0, mLength);
+    }
+
+    /**
+     * Quotes and escapes a string for use in a small json document
+     *
+     * @param value
+     * @return
+     */
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private void writeValue(LogField field) {
+        switch (field.type) {
+            case Long:
+                writeLong(field.longValue());
+                break;
+            case Double:
+                double d = field.doubleValue();
+                if (Double.isNaN(d) || Double.isInfinite(d)) {
+                    // json has no representation for these
+                    writeString(Double.toString(d));
+                } else {
+                    writeAscii(Double.toString(d));
+                }
+                break;
+            case Boolean:
+                writeAscii(field.booleanValue() ? "true" : "false");
+                break;
+            default:
+                writeString(field.stringValue());
+        }
+    }
+
+    private void writeHex(long value) {
+        ensureCapacity(18);
+        mBuffer[mLength++] = '"';
+        for (int i = 15; i >= 0; i--) {
+            mBuffer[mLength + i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+        mLength += 16;
+        mBuffer[mLength++] = '"';
+    }
+
+    private void writeKey(String key, boolean first) {
+        if (!first) {
+            writeByte(',');
+        }
+        writeString(key);
+        writeByte(':');
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = mLength + digits - 1; i >= mLength; i--) {
+            mBuffer[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        mLength += digits;
+    }
+
+    private void writeAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            mBuffer[mLength++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeString(String value) {
+        if (value == null) {
+            writeAscii("null");
+            return;
+        }
+        int length = value.length();
+        boolean truncated = length > MAX_STRING_LENGTH;
+        if (truncated) {
+            length = MAX_STRING_LENGTH;
+            if (Character.isHighSurrogate(value.charAt(length - 1))) {
+                length--;
+            }
+        }
+        writeByte('"');
+        // the buffer grows a chunk at a time since the worst case is a 6 byte escape per char
+        for (int start = 0; start < length; ) {
+            int end = Math.min(length, start + CHUNK_LENGTH);
+            ensureCapacity((end - start + 1) * 6);
+            start = writeChars(value, start, end, length);
+        }
+        if (truncated) {
+            writeAscii("...");
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Writes utf-8 encoded and escaped characters. The buffer must have room for 6 bytes per char.
+     *
+     * @param value the string
+     * @param start the first char to write
+     * @param end   the char to stop at unless it completes a surrogate pair
+     * @param limit the number of chars of the string that may be written
+     * @return the index of the next char to write
+     */
+    private int writeChars(String value, int start, int end, int limit) {
+        byte[] buf = mBuffer;
+        int pos = mLength;
+        int i;
+        for (i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buf[pos++] = '\\';
+                buf[pos++] = (byte) c;
+            } else if (c < 0x20) {
+                buf[pos++] = '\\';
+                switch (c) {
+                    case '\n':
+                        buf[pos++] = 'n';
+                        break;
+                    case '\r':
+                        buf[pos++] = 'r';
+                        break;
+                    case '\t':
+                        buf[pos++] = 't';
+                        break;
+                    default:
+                        buf[pos++] = 'u';
+                        buf[pos++] = '0';
+                        buf[pos++] = '0';
+                        buf[pos++] = HEX[c >> 4];
+                        buf[pos++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < limit
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogate
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        mLength = pos;
+        return i;
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        mBuffer[mLength++] = (byte) c;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mLength + extra > mBuffer.length) {
+            byte[] grown = new byte[Math.max(mBuffer.length * 2, mLength + extra)];
+            System.arraycopy(mBuffer, 0, grown, 0, mLength);
+            mBuffer = grown;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package org.unfoldingword.tools.logger;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Created by joel on 6/18/16.
+ */
+public class LogEntry {
+    private static final LogField[] NO_FIELDS = new LogField[0];
+    public final Date date;
+    public final LogLevel level;
+    public final String classPath;
+    public final String message;
+    private String mDetails;
+    private LogField[] mFields = NO_FIELDS;
+    // identifies the stack trace in the details so repeats can be stored by reference
+    long stackFingerprint = 0;
+    // the offset of the record holding the full stack trace when it was stored by reference
+    long stackAt = -1;
+    // where the entry came from. These are zero or null for entries written before they were recorded
+    long sequence = 0;
+    int processId = 0;
+    long threadId = 0;
+    String threadName = null;
+
+    /**
+     * Creates a new error object
+     *
+     * @param date
+     * @param level
+     * @param classPath
+     * @param message
+     */
+    public LogEntry(Date date, LogLevel level, String classPath, String message) {
+        this.date = date;
+        this.level = level;
+        this.classPath = classPath;
+        this.message = message;
+    }
+
+    /**
+     * Creates a new error object
+     *
+     * @param date
+     * @param level
+     * @param classPath
+     * @param message
+     * @param details
+     */
+    public LogEntry(Date date, LogLevel level, String classPath, String message, String details) {
+        this.date = date;
+        this.level = level;
+        this.classPath = classPath;
+        this.message = message;
+        mDetails = details;
+    }
+
+    /**
+     * Creates a new error object
+     *
+     * @param date
+     * @param level
+     * @param classPath
+     * @param message
+     * @param details
+     * @param fields the structured fields
+     */
+    public LogEntry(Date date, LogLevel level, String classPath, String message, String details, LogField... fields) {
+        this(date, level, classPath, message, details);
+        if (fields != null && fields.length > 0) {
+            mFields = fields;
+        }
+    }
+
+    /**
+     * Returns a copy of this entry that can be changed without affecting it
+     *
+     * @return
+     */
+    LogEntry copy() {
+        LogEntry copy = new LogEntry(date != null ? new Date(date.getTime()) : null, level, classPath, message, mDetails);
+        copy.mFields = mFields;
+        copy.stackFingerprint = stackFingerprint;
+        copy.stackAt = stackAt;
+        copy.sequence = sequence;
+        copy.processId = processId;
+        copy.threadId = threadId;
+        copy.threadName = threadName;
+        return copy;
+    }
+
+    /**
+     * Returns when the entry was logged in milliseconds since the epoch
+     *
+     * @return
+     */
+    public long getTime() {
+        return date != null ? date.getTime() : 0;
+    }
+
+    /**
+     * Returns the position of the entry among those logged by its process.
+     * Entries logged in the same millisecond can be ordered by this.
+     *
+     * @return 0 if unknown
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the id of the process that logged the entry
+     *
+     * @return 0 if unknown
+     */
+    public int getProcessId() {
+        return processId;
+    }
+
+    /**
+     * Returns the id of the thread that logged the entry
+     *
+     * @return 0 if unknown
+     */
+    public long getThreadId() {
+        return threadId;
+    }
+
+    /**
+     * Returns the name of the thread that logged the entry
+     *
+     * @return null if unknown
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * Sets the error log details
+     *
+     * @param details
+     */
+    public void setDetails(String details) {
+        mDetails = details;
+    }
+
+    /**
+     * Returns the error log details
+     *
+     * @return
+     */
+    public String getDetails() {
+        return mDetails;
+    }
+
+    /**
+     * Returns the structured fields attached to this entry
+     *
+     * @return
+     */
+    public List<LogField> getFields() {
+        return Collections.unmodifiableList(Arrays.asList(mFields));
+    }
+
+    /**
+     * Returns a structured field by key
+     *
+     * @param key
+     * @return null if the field does not exist
+     */
+    public LogField getField(String key) {
+        for (LogField field : mFields) {
+            if (field.key.equals(key)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns an integer field
+     *
+     * @param key
+     * @param defaultValue returned if the field does not exist
+     * @return
+     */
+    public long getLong(String key, long defaultValue) {
+        LogField field = getField(key);
+        return field != null ? field.longValue() : defaultValue;
+    }
+
+    /**
+     * Returns a decimal field
+     *
+     * @param key
+     * @param defaultValue returned if the field does not exist
+     * @return
+     */
+    public double getDouble(String key, double defaultValue) {
+        LogField field = getField(key);
+        return field != null ? field.doubleValue() : defaultValue;
+    }
+
+    /**
+     * Returns a boolean field
+     *
+     * @param key
+     * @param defaultValue returned if the field does not exist
+     * @return
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        LogField field = getField(key);
+        return field != null ? field.booleanValue() : defaultValue;
+    }
+
+    /**
+     * Returns a text field
+     *
+     * @param key
+     * @return null if the field does not exist
+     */
+    public String getString(String key) {
+        LogField field = getField(key);
+        return field != null ? field.stringValue() : null;
+    }
+}
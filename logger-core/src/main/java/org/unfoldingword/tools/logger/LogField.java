@@ -0,0 +1,175 @@
+package org.unfoldingword.tools.logger;
+
+/**
+ * A structured key-value pair attached to a log entry.
+ * Primitive values are stored unboxed.
+ *
+ * <pre>
+ * import static org.unfoldingword.tools.logger.LogField.kv;
+ *
+ * Logger.i(TAG, "synced", kv("userId", id), kv("ms", elapsed));
+ * </pre>
+ */
+public final class LogField {
+
+    public enum Type {
+        Long,
+        Double,
+        Boolean,
+        String
+    }
+
+    public final String key;
+    public final Type type;
+    private final long longValue;
+    private final double doubleValue;
+    private final String stringValue;
+
+    private LogField(String key, Type type, long longValue, double doubleValue, String stringValue) {
+        if (key == null) {
+            throw new IllegalArgumentException("The field key cannot be null");
+        }
+        this.key = key;
+        this.type = type;
+        this.longValue = longValue;
+        this.doubleValue = doubleValue;
+        this.stringValue = stringValue;
+    }
+
+    /**
+     * Creates an integer field
+     * @param key
+     * @param value
+     * @return
+     */
+    public static LogField kv(String key, long value) {
+        return new LogField(key, Type.Long, value, 0, null);
+    }
+
+    /**
+     * Creates a decimal field
+     * @param key
+     * @param value
+     * @return
+     */
+    public static LogField kv(String key, double value) {
+        return new LogField(key, Type.Double, 0, value, null);
+    }
+
+    /**
+     * Creates a boolean field
+     * @param key
+     * @param value
+     * @return
+     */
+    public static LogField kv(String key, boolean value) {
+        return new LogField(key, Type.Boolean, value ? 1 : 0, 0, null);
+    }
+
+    /**
+     * Creates a text field
+     * @param key
+     * @param value
+     * @return
+     */
+    public static LogField kv(String key, String value) {
+        return new LogField(key, Type.String, 0, 0, value);
+    }
+
+    /**
+     * Creates a field from a boxed primitive or the string value of an object
+     * @param key
+     * @param value
+     * @return
+     */
+    public static LogField kv(String key, Object value) {
+        if (value instanceof java.lang.Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            return kv(key, ((Number) value).longValue());
+        } else if (value instanceof Number) {
+            return kv(key, ((Number) value).doubleValue());
+        } else if (value instanceof java.lang.Boolean) {
+            return kv(key, ((java.lang.Boolean) value).booleanValue());
+        }
+        return new LogField(key, Type.String, 0, 0, value == null ? null : value.toString());
+    }
+
+    /**
+     * Returns the value as an integer.
+     * Decimals are truncated and text is parsed if possible.
+     * @return
+     */
+    public long longValue() {
+        switch (type) {
+            case Long:
+            case Boolean:
+                return longValue;
+            case Double:
+                return (long) doubleValue;
+            default:
+                try {
+                    return java.lang.Long.parseLong(stringValue);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+        }
+    }
+
+    /**
+     * Returns the value as a decimal.
+     * @return
+     */
+    public double doubleValue() {
+        switch (type) {
+            case Long:
+            case Boolean:
+                return longValue;
+            case Double:
+                return doubleValue;
+            default:
+                try {
+                    return java.lang.Double.parseDouble(stringValue);
+                } catch (NumberFormatException | NullPointerException e) {
+                    return 0;
+                }
+        }
+    }
+
+    /**
+     * Returns the value as a boolean.
+     * @return
+     */
+    public boolean booleanValue() {
+        switch (type) {
+            case Long:
+            case Boolean:
+                return longValue != 0;
+            case Double:
+                return doubleValue != 0;
+            default:
+                return "true".equalsIgnoreCase(stringValue);
+        }
+    }
+
+    /**
+     * Returns the value as text
+     * @return
+     */
+    public String stringValue() {
+        switch (type) {
+            case Long:
+                return java.lang.Long.toString(longValue);
+            case Double:
+                return java.lang.Double.toString(doubleValue);
+            case Boolean:
+                return longValue != 0 ? "true" : "false";
+            default:
+                return stringValue;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + stringValue();
+    }
+}
@@ -0,0 +1,15 @@
+package org.unfoldingword.tools.logger;
+
+/**
+ * Selects the log entries a subscriber is interested in.
+ * Filters run on the thread that logged the entry so they should be cheap.
+ * The entry is the one waiting to be written so filters must not change it.
+ */
+public interface LogFilter {
+
+    /**
+     * @param entry the entry that was logged
+     * @return true if the entry should be delivered
+     */
+    boolean accept(LogEntry entry);
+}
@@ -0,0 +1,164 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Formats the plain text representation of log entries and parses the
+ * legacy log files written before entries were stored as framed records.
+ */
+class LogFormat {
+
+    /**
+     * The pattern to match the leading log line
+     */
+    public final static String PATTERN = "(\\d+\\/\\d+\\/\\d+\\s+\\d+:\\d+\\s+[A|P]M)\\s+([A-Z|])\\/(((?!:).)*):(.*)";
+    private final static String DATE_PATTERN = "MM/dd/yy hh:mm a";
+
+    private final Pattern pattern = Pattern.compile(PATTERN);
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN, Locale.ENGLISH);
+
+    /**
+     * Appends structured fields to a message for display in plain text logs
+     *
+     * @param message the message
+     * @param fields the structured fields
+     * @return
+     */
+    public static String appendFields(String message, LogField[] fields) {
+        if (fields == null || fields.length == 0) {
+            return message;
+        }
+        StringBuilder sb = new StringBuilder(message == null ? "null" : message);
+        sb.append(" {");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(fields[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Formats an entry as plain text in the layout of the legacy log files.
+     * The details follow on the next lines.
+     * Instances are not thread safe.
+     *
+     * @param entry the entry
+     * @return
+     */
+    public String format(LogEntry entry) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(dateFormat.format(entry.date)).append(' ')
+                .append(entry.level.getLabel()).append('/').append(entry.classPath).append(": ")
+                .append(appendFields(entry.message, entry.getFields().toArray(new LogField[0])));
+        String details = entry.getDetails();
+        if (details != null && !details.isEmpty()) {
+            sb.append('\n').append(details.endsWith("\n") ? details.substring(0, details.length() - 1) : details);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats entries as plain text, one after another
+     *
+     * @param entries the entries in the order to show them
+     * @return
+     */
+    public static String format(List<LogEntry> entries) {
+        LogFormat format = new LogFormat();
+        StringBuilder sb = new StringBuilder();
+        for (LogEntry entry : entries) {
+            sb.append(format.format(entry)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses the leading line of a legacy log entry.
+     * Instances are not thread safe.
+     *
+     * @param line the line to parse
+     * @return null if the line does not start a new entry
+     */
+    public LogEntry parseEntry(String line) throws ParseException {
+        Matcher match = pattern.matcher(line);
+        if (match.find()) {
+            return new LogEntry(dateFormat.parse(match.group(1)), LogLevel.getLevel(match.group(2)), match.group(3), match.group(5));
+        }
+        return null;
+    }
+
+    /**
+     * Reads a legacy log file.
+     * These may contain unframed json lines or the original text format.
+     *
+     * @param logFile the legacy log file
+     * @return a list of log entries with the newest entries first
+     * @throws IOException
+     */
+    public static List<LogEntry> readLegacy(File logFile) throws IOException {
+        List<LogEntry> logs = new ArrayList<>();
+        // text entries are newest first and older than all json entries
+        List<LogEntry> textLogs = new ArrayList<>();
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), Charset.forName("UTF-8")));
+        try {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            JsonLineReader reader = new JsonLineReader();
+            LogFormat format = new LogFormat();
+            LogEntry log = null;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("{")) {
+                    LogEntry entry = reader.parse(line);
+                    if (entry != null) {
+                        logs.add(entry);
+                    }
+                    continue;
+                }
+                LogEntry next;
+                try {
+                    next = format.parseEntry(line);
+                } catch (ParseException e) {
+                    next = null;
+                }
+                if (next != null) {
+                    // save log
+                    if (log != null) {
+                        log.setDetails(sb.toString().trim());
+                        textLogs.add(log);
+                        sb.setLength(0);
+                    }
+                    // start new log
+                    log = next;
+                } else {
+                    // build log details
+                    sb.append(line);
+                }
+            }
+            // save the last log
+            if (log != null) {
+                log.setDetails(sb.toString().trim());
+                textLogs.add(log);
+            }
+        } finally {
+            br.close();
+        }
+        Collections.reverse(logs);
+        logs.addAll(textLogs);
+        return logs;
+    }
+}
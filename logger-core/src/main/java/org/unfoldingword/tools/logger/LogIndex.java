@@ -0,0 +1,237 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index of the tokens in a log segment.
+ * Each token maps to the offsets of the records that contain it, in ascending order.
+ * The index of the log file is built as records are written and saved next to the
+ * segment (e.g. log.txt.3.idx) when it is sealed.
+ *
+ * Access must be synchronized on the index while it is still being written.
+ */
+class LogIndex {
+
+    private static final String EXT = "idx";
+    private static final int MAGIC = 0x4c494458;
+    private static final int MAX_TOKEN_LENGTH = 64;
+    private static final long[] EMPTY = new long[0];
+    private final Map<String, Postings> mPostings = new HashMap<>();
+    private final Set<String> mTokens = new HashSet<>();
+
+    /**
+     * A growable list of record offsets
+     */
+    private static class Postings {
+        long[] offsets = new long[4];
+        int size = 0;
+
+        void add(long offset) {
+            if (size > 0 && offsets[size - 1] == offset) {
+                return;
+            }
+            if (size == offsets.length) {
+                long[] grown = new long[size * 2];
+                System.arraycopy(offsets, 0, grown, 0, size);
+                offsets = grown;
+            }
+            offsets[size++] = offset;
+        }
+    }
+
+    /**
+     * Returns the index file that belongs to a segment
+     *
+     * @param segment
+     * @return
+     */
+    public static File fileFor(File segment) {
+        return new File(segment.getParentFile(), segment.getName() + "." + EXT);
+    }
+
+    /**
+     * Adds the tokens of an entry to the index
+     *
+     * @param entry  the entry
+     * @param offset the offset of the entry's record in the segment
+     */
+    public void add(LogEntry entry, long offset) {
+        mTokens.clear();
+        tokenize(entry.message, mTokens);
+        tokenize(entry.classPath, mTokens);
+        tokenize(entry.getDetails(), mTokens);
+        for (String token : mTokens) {
+            Postings postings = mPostings.get(token);
+            if (postings == null) {
+                postings = new Postings();
+                mPostings.put(token, postings);
+            }
+            postings.add(offset);
+        }
+    }
+
+    /**
+     * Returns a copy of the offsets of records containing the token
+     *
+     * @param token a lower case token
+     * @return the offsets in ascending order
+     */
+    public long[] get(String token) {
+        Postings postings = mPostings.get(token);
+        if (postings == null) {
+            return EMPTY;
+        }
+        long[] offsets = new long[postings.size];
+        System.arraycopy(postings.offsets, 0, offsets, 0, postings.size);
+        return offsets;
+    }
+
+    /**
+     * Saves the index
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the index to a stream
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(mPostings.size());
+        for (Map.Entry<String, Postings> e : mPostings.entrySet()) {
+            out.writeUTF(e.getKey());
+            Postings postings = e.getValue();
+            writeVarLong(out, postings.size);
+            long previous = 0;
+            for (int i = 0; i < postings.size; i++) {
+                writeVarLong(out, postings.offsets[i] - previous);
+                previous = postings.offsets[i];
+            }
+        }
+    }
+
+    /**
+     * Loads a saved index
+     *
+     * @param file
+     * @return
+     * @throws IOException if the index is missing or damaged
+     */
+    public static LogIndex read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return readFrom(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo(DataOutputStream)}
+     *
+     * @param in
+     * @return
+     * @throws IOException if the index is damaged
+     */
+    public static LogIndex readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an index");
+        }
+        LogIndex index = new LogIndex();
+        int tokens = in.readInt();
+        for (int t = 0; t < tokens; t++) {
+            String token = in.readUTF();
+            Postings postings = new Postings();
+            int size = (int) readVarLong(in);
+            if (size < 0) {
+                throw new IOException("Damaged index");
+            }
+            postings.offsets = new long[Math.max(size, 1)];
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                previous += readVarLong(in);
+                postings.offsets[i] = previous;
+            }
+            postings.size = size;
+            index.mPostings.put(token, postings);
+        }
+        return index;
+    }
+
+    /**
+     * Splits text into lower case tokens of letters, digits and underscores
+     *
+     * @param text   the text to split. May be null
+     * @param tokens receives the tokens in the order they appear
+     */
+    public static void tokenize(String text, Collection<String> tokens) {
+        if (text == null) {
+            return;
+        }
+        int start = -1;
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            boolean tokenChar = i < length && isTokenChar(text.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                int end = Math.min(i, start + MAX_TOKEN_LENGTH);
+                tokens.add(text.substring(start, end).toLowerCase(Locale.ENGLISH));
+                start = -1;
+            }
+        }
+    }
+
+    private static boolean isTokenChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IOException("Malformed index");
+            }
+        }
+    }
+}
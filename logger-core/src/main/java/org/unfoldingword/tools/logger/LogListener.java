@@ -0,0 +1,19 @@
+package org.unfoldingword.tools.logger;
+
+import java.util.List;
+
+/**
+ * Receives log entries as they are logged.
+ * See {@link LogPublisher#subscribe(LogFilter, LogListener, java.util.concurrent.Executor)}
+ */
+public interface LogListener {
+
+    /**
+     * Called on the subscriber's executor with the entries logged since the last call
+     *
+     * @param entries the new entries ordered by sequence number, oldest first. An entry logged on another
+     *                thread at the same time as a newer one may arrive in the next call
+     * @param dropped the number of entries discarded since the last call because the subscriber fell behind
+     */
+    void onLogEntries(List<LogEntry> entries, int dropped);
+}
@@ -0,0 +1,126 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Reads the streams written by several processes as a single stream ordered by time.
+ * Each stream is already in sequence order, which is kept even if the wall clock was set back,
+ * so only the next entry of each is held in memory while the oldest is picked from a heap. Entries logged in the same millisecond are ordered by process
+ * and then by sequence number. Records written before the log was last flushed are skipped.
+ * Instances are not thread safe.
+ */
+class LogMerger {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * Orders entries oldest first
+     */
+    static final Comparator<LogEntry> ENTRY_ORDER = new Comparator<LogEntry>() {
+        @Override
+        public int compare(LogEntry a, LogEntry b) {
+            long x = a.getTime();
+            long y = b.getTime();
+            if (x != y) {
+                return x < y ? -1 : 1;
+            }
+            if (a.processId != b.processId) {
+                return a.processId < b.processId ? -1 : 1;
+            }
+            x = a.sequence;
+            y = b.sequence;
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+    };
+    private static final Comparator<Cursor> ORDER = new Comparator<Cursor>() {
+        @Override
+        public int compare(Cursor a, Cursor b) {
+            return ENTRY_ORDER.compare(a.head, b.head);
+        }
+    };
+    private final JsonLineReader mReader = new JsonLineReader();
+    private final PriorityQueue<Cursor> mHeap;
+
+    /**
+     * Reads the segments of one stream in order
+     */
+    private class Cursor {
+        private final List<LogSnapshot.Segment> mSegments;
+        private int mSegment = -1;
+        private RecordReader mRecords = null;
+        private final Map<Long, String> mStacks = new HashMap<>();
+        private long mOffset = 0;
+        LogEntry head = null;
+
+        Cursor(List<LogSnapshot.Segment> segments) {
+            mSegments = segments;
+        }
+
+        /**
+         * Moves to the next entry
+         *
+         * @return false if the stream has ended
+         * @throws IOException
+         */
+        boolean advance() throws IOException {
+            head = null;
+            while (head == null) {
+                if (mRecords == null || !mRecords.next()) {
+                    if (++mSegment >= mSegments.size()) {
+                        return false;
+                    }
+                    mRecords = LogSnapshot.openRecords(mSegments.get(mSegment));
+                    mStacks.clear();
+                    mOffset = 0;
+                    continue;
+                }
+                LogEntry entry = mReader.parse(new String(mRecords.payload(), 0, mRecords.payloadLength(), UTF8));
+                if (entry != null) {
+                    FileLogger.resolveStack(entry, mOffset, mStacks);
+                    if (mOffset >= mSegments.get(mSegment).start) {
+                        head = entry;
+                    }
+                }
+                mOffset = mRecords.offset();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param streams the segments of each stream ordered oldest first
+     * @throws IOException
+     */
+    LogMerger(List<List<LogSnapshot.Segment>> streams) throws IOException {
+        mHeap = new PriorityQueue<>(Math.max(streams.size(), 1), ORDER);
+        for (List<LogSnapshot.Segment> stream : streams) {
+            Cursor cursor = new Cursor(stream);
+            if (cursor.advance()) {
+                mHeap.add(cursor);
+            }
+        }
+    }
+
+    /**
+     * Returns the oldest entry that has not been read yet
+     *
+     * @return null when all streams have ended
+     * @throws IOException
+     */
+    public LogEntry next() throws IOException {
+        Cursor cursor = mHeap.poll();
+        if (cursor == null) {
+            return null;
+        }
+        LogEntry entry = cursor.head;
+        if (cursor.advance()) {
+            mHeap.add(cursor);
+        }
+        return entry;
+    }
+}
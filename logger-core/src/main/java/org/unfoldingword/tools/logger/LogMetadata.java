@@ -0,0 +1,195 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Supplies the time and origin recorded with each entry.
+ * Entries record the wall clock and are ordered within a process by their sequence number,
+ * so setting the clock back does not reorder them. Small steps back, such as those made while
+ * the clock is synchronized, are clamped so times rarely go backwards within a file. Larger
+ * corrections are recorded as they are rather than freezing the time until the clock catches up.
+ * Thread details are looked up once per thread and the process id once per process, so stamping
+ * an entry costs a clock read, a compare-and-set, an atomic increment and a thread local lookup.
+ */
+class LogMetadata {
+
+    /**
+     * The largest step back of the wall clock that is hidden from entry times
+     */
+    static final long MAX_CLAMP_MILLIS = 1000;
+    private static final AtomicLong sSequence = new AtomicLong();
+    private static final AtomicLong sLastMillis = new AtomicLong();
+    private static volatile int sProcessId = 0;
+    private static volatile String sProcessName = null;
+    private static final ThreadLocal<ThreadInfo> sThreadInfo = new ThreadLocal<ThreadInfo>() {
+        @Override
+        protected ThreadInfo initialValue() {
+            Thread thread = Thread.currentThread();
+            return new ThreadInfo(thread.getId(), thread.getName());
+        }
+    };
+
+    /**
+     * The details of a thread captured the first time it logs
+     */
+    static class ThreadInfo {
+        public final long id;
+        public final String name;
+
+        ThreadInfo(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private LogMetadata() {
+    }
+
+    /**
+     * Returns the current time in milliseconds.
+     * See {@link #clamp(long)}
+     *
+     * @return
+     */
+    static long currentTimeMillis() {
+        return clamp(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the time to record for a reading of the wall clock.
+     * If the clock went back by up to {@link #MAX_CLAMP_MILLIS} the latest time already returned is
+     * used instead. If it went back further the reading is used and becomes the latest time.
+     *
+     * @param now the wall clock in milliseconds
+     * @return
+     */
+    static long clamp(long now) {
+        while (true) {
+            long last = sLastMillis.get();
+            if (now <= last && last - now <= MAX_CLAMP_MILLIS) {
+                return last;
+            }
+            if (sLastMillis.compareAndSet(last, now)) {
+                return now;
+            }
+        }
+    }
+
+    /**
+     * Returns the next sequence number in this process
+     * @return
+     */
+    static long nextSequence() {
+        return sSequence.incrementAndGet();
+    }
+
+    /**
+     * Returns the details of the calling thread
+     * @return
+     */
+    static ThreadInfo currentThread() {
+        return sThreadInfo.get();
+    }
+
+    /**
+     * Sets the id of this process.
+     * Platforms that can look it up cheaply should set this before anything is logged.
+     *
+     * @param pid
+     */
+    static void setProcessId(int pid) {
+        sProcessId = pid;
+    }
+
+    /**
+     * Returns the id of this process
+     * @return 0 if it cannot be determined
+     */
+    static int getProcessId() {
+        int pid = sProcessId;
+        if (pid == 0) {
+            pid = lookupProcessId();
+            sProcessId = pid;
+        }
+        return pid;
+    }
+
+    /**
+     * Returns the name of this process.
+     * On android this is the package name, followed by the name of a secondary process such as ":sync".
+     * This reads from /proc the first time so it should not be called on the main thread.
+     *
+     * @return null if it cannot be determined
+     */
+    static String getProcessName() {
+        String name = sProcessName;
+        if (name == null) {
+            name = lookupProcessName();
+            sProcessName = name != null ? name : "";
+        }
+        return name == null || name.isEmpty() ? null : name;
+    }
+
+    /**
+     * Sets the name of this process
+     *
+     * @param name
+     */
+    static void setProcessName(String name) {
+        sProcessName = name;
+    }
+
+    /**
+     * Reads the process name from the command line in /proc
+     * @return null if it cannot be read
+     */
+    private static String lookupProcessName() {
+        try {
+            InputStream in = new FileInputStream("/proc/self/cmdline");
+            try {
+                byte[] buffer = new byte[256];
+                int length = 0;
+                int read;
+                while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) > 0) {
+                    length += read;
+                }
+                int end = 0;
+                while (end < length && buffer[end] != 0) {
+                    end++;
+                }
+                return end > 0 ? new String(buffer, 0, end, "UTF-8").trim() : null;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the process id from /proc on linux or the runtime name on other jvms
+     * @return 0 if it cannot be determined
+     */
+    private static int lookupProcessId() {
+        try {
+            return Integer.parseInt(new File("/proc/self").getCanonicalFile().getName());
+        } catch (IOException | NumberFormatException e) {
+            // not linux
+        }
+        try {
+            // ManagementFactory is not available on android so it is loaded by name
+            Object runtime = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getRuntimeMXBean").invoke(null);
+            Method getName = Class.forName("java.lang.management.RuntimeMXBean").getMethod("getName");
+            String name = (String) getName.invoke(runtime);
+            return Integer.parseInt(name.substring(0, name.indexOf('@')));
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.unfoldingword.tools.logger;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Pushes new log entries to live subscribers such as an in-app log viewer.
+ * The cost of a subscription is proportional to the entries logged while it is active,
+ * not to the size of the log.
+ */
+public class LogPublisher {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+    private final CopyOnWriteArrayList<LogSubscription> mSubscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Subscribes to new log entries.
+     * Up to {@link #DEFAULT_CAPACITY} undelivered entries are buffered, after which the oldest are discarded.
+     *
+     * @param filter   selects the entries to deliver. If null all entries are delivered.
+     * @param listener receives the entries
+     * @param executor runs the listener
+     * @return the subscription
+     */
+    public LogSubscription subscribe(LogFilter filter, LogListener listener, Executor executor) {
+        return subscribe(filter, listener, executor, DEFAULT_CAPACITY, LogSubscription.Overflow.Coalesce);
+    }
+
+    /**
+     * Subscribes to new log entries
+     *
+     * @param filter   selects the entries to deliver. If null all entries are delivered.
+     * @param listener receives the entries
+     * @param executor runs the listener
+     * @param capacity the maximum number of undelivered entries to buffer
+     * @param overflow what to do when the buffer is full
+     * @return the subscription
+     */
+    public LogSubscription subscribe(LogFilter filter, LogListener listener, Executor executor, int capacity, LogSubscription.Overflow overflow) {
+        LogSubscription subscription = new LogSubscription(this, filter, listener, executor, capacity, overflow);
+        mSubscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Checks if anyone is listening
+     * @return
+     */
+    public boolean hasSubscribers() {
+        return !mSubscriptions.isEmpty();
+    }
+
+    /**
+     * Offers an entry to every subscriber.
+     * Entries logged at the same time on different threads may be published out of sequence order.
+     *
+     * @param entry
+     */
+    void publish(LogEntry entry) {
+        for (LogSubscription subscription : mSubscriptions) {
+            try {
+                subscription.offer(entry);
+            } catch (RuntimeException e) {
+                // a bad filter must not break logging
+                e.printStackTrace();
+            }
+        }
+    }
+
+    void remove(LogSubscription subscription) {
+        mSubscriptions.remove(subscription);
+    }
+}
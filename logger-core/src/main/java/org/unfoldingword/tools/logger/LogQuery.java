@@ -0,0 +1,287 @@
+package org.unfoldingword.tools.logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A full text query over the log.
+ * Terms are case insensitive and match whole tokens in the message, tag or details.
+ * Terms separated by spaces or AND must all match, OR separates alternatives and
+ * NOT (or a leading -) excludes entries containing a term. AND binds tighter than OR.
+ * A quoted phrase, or a term made of several tokens such as a class name, matches
+ * when its tokens appear next to each other and in order within a single field.
+ *
+ * <pre>
+ * timeout AND sync
+ * timeout sync OR "connection reset" NOT retry
+ * </pre>
+ */
+class LogQuery {
+
+    /**
+     * A set of terms that must all match
+     */
+    private static class Group {
+        final List<List<String>> required = new ArrayList<>();
+        final List<List<String>> excluded = new ArrayList<>();
+    }
+
+    private final List<Group> mGroups = new ArrayList<>();
+
+    private LogQuery() {
+    }
+
+    /**
+     * Parses a query
+     *
+     * @param query
+     * @return
+     */
+    public static LogQuery parse(String query) {
+        LogQuery q = new LogQuery();
+        Group group = new Group();
+        boolean negate = false;
+        for (String word : splitWords(query)) {
+            if (word.equals("OR")) {
+                q.addGroup(group);
+                group = new Group();
+                negate = false;
+                continue;
+            } else if (word.equals("AND")) {
+                continue;
+            } else if (word.equals("NOT")) {
+                negate = true;
+                continue;
+            }
+            if (word.startsWith("-") && word.length() > 1) {
+                negate = true;
+                word = word.substring(1);
+            }
+            List<String> tokens = new ArrayList<>();
+            LogIndex.tokenize(word, tokens);
+            if (!tokens.isEmpty()) {
+                (negate ? group.excluded : group.required).add(tokens);
+            }
+            negate = false;
+        }
+        q.addGroup(group);
+        return q;
+    }
+
+    /**
+     * Checks if the query has no terms that can match
+     * @return
+     */
+    public boolean isEmpty() {
+        return mGroups.isEmpty();
+    }
+
+    /**
+     * Checks if the query has phrases, whose matches must be confirmed with {@link #accept(LogEntry)}
+     * @return
+     */
+    public boolean hasPhrases() {
+        for (Group group : mGroups) {
+            for (List<String> term : group.required) {
+                if (term.size() > 1) {
+                    return true;
+                }
+            }
+            for (List<String> term : group.excluded) {
+                if (term.size() > 1) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the records in a segment that may match the query.
+     * The index does not record where tokens appear so phrases are matched by their tokens alone.
+     *
+     * @param index the segment index
+     * @return the matching record offsets in ascending order
+     */
+    public long[] match(LogIndex index) {
+        long[] result = new long[0];
+        for (Group group : mGroups) {
+            long[] matches = null;
+            for (List<String> term : group.required) {
+                matches = intersect(matches, lookup(index, term));
+                if (matches.length == 0) {
+                    break;
+                }
+            }
+            if (matches == null || matches.length == 0) {
+                continue;
+            }
+            for (List<String> term : group.excluded) {
+                if (term.size() == 1) {
+                    // records holding the tokens of an excluded phrase may still match
+                    matches = subtract(matches, lookup(index, term));
+                }
+            }
+            result = union(result, matches);
+        }
+        return result;
+    }
+
+    /**
+     * Checks if an entry matches the query
+     *
+     * @param entry
+     * @return
+     */
+    public boolean accept(LogEntry entry) {
+        List<List<String>> fields = new ArrayList<>();
+        addField(entry.message, fields);
+        addField(entry.classPath, fields);
+        addField(entry.getDetails(), fields);
+        for (Group group : mGroups) {
+            if (matches(group, fields)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addField(String text, List<List<String>> fields) {
+        List<String> tokens = new ArrayList<>();
+        LogIndex.tokenize(text, tokens);
+        fields.add(tokens);
+    }
+
+    private static boolean matches(Group group, List<List<String>> fields) {
+        for (List<String> term : group.required) {
+            if (!contains(fields, term)) {
+                return false;
+            }
+        }
+        for (List<String> term : group.excluded) {
+            if (contains(fields, term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the tokens of a term appear in order and next to each other in one of the fields
+     */
+    private static boolean contains(List<List<String>> fields, List<String> term) {
+        for (List<String> tokens : fields) {
+            if (Collections.indexOfSubList(tokens, term) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addGroup(Group group) {
+        // a group of only exclusions would have to scan everything
+        if (!group.required.isEmpty()) {
+            mGroups.add(group);
+        }
+    }
+
+    /**
+     * Returns the records that contain every token of a term
+     */
+    private static long[] lookup(LogIndex index, List<String> term) {
+        long[] matches = null;
+        for (String token : term) {
+            matches = intersect(matches, index.get(token));
+        }
+        return matches;
+    }
+
+    /**
+     * Splits a query into words, keeping quoted phrases together
+     */
+    private static List<String> splitWords(String query) {
+        List<String> words = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (sb.length() > 0) {
+                    words.add(sb.toString());
+                    sb.setLength(0);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        if (sb.length() > 0) {
+            words.add(sb.toString());
+        }
+        return words;
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+        if (a == null) {
+            return b;
+        }
+        long[] out = new long[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return trim(out, n);
+    }
+
+    private static long[] subtract(long[] a, long[] b) {
+        long[] out = new long[a.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length) {
+            if (j >= b.length || a[i] < b[j]) {
+                out[n++] = a[i++];
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+        }
+        return trim(out, n);
+    }
+
+    private static long[] union(long[] a, long[] b) {
+        long[] out = new long[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                out[n++] = a[i++];
+            } else if (i >= a.length || a[i] > b[j]) {
+                out[n++] = b[j++];
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return trim(out, n);
+    }
+
+    private static long[] trim(long[] values, int length) {
+        if (values.length == length) {
+            return values;
+        }
+        long[] out = new long[length];
+        System.arraycopy(values, 0, out, 0, length);
+        return out;
+    }
+}
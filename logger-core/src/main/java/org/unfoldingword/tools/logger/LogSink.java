@@ -0,0 +1,21 @@
+package org.unfoldingword.tools.logger;
+
+/**
+ * A platform specific destination for log messages such as LogCat or the console.
+ * The sink sees every message regardless of the configured logging level.
+ */
+public interface LogSink {
+
+    /**
+     * Sends a message to the platform log
+     *
+     * @param level     the log level
+     * @param tag       a tag identifying a group of log messages
+     * @param message   the message
+     * @param stackTrace the exception logged with the message as rendered by {@link ThrowableRenderer}, or null.
+     *                   The same text is recorded to the log file so the exception is only rendered once.
+     * @param fields    the structured fields attached to the message. This is never null.
+     * @return the number of bytes written. Messages with a result of 0 or less are not recorded to the log file.
+     */
+    int println(LogLevel level, String tag, String message, String stackTrace, LogField[] fields);
+}
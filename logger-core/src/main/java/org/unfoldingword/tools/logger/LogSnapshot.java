@@ -0,0 +1,139 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A consistent view of the log segments at a point in time.
+ * Segments written by other processes are opened at their size on disk since they are not
+ * coordinated with this process.
+ * The segment files are opened when the snapshot is taken and each is limited to the
+ * length that had been committed, so the writer may keep appending, rolling or deleting
+ * segments while the snapshot is read.
+ */
+class LogSnapshot implements Closeable {
+
+    /**
+     * A segment in the snapshot
+     */
+    static class Segment {
+        public final File file;
+        public final FileInputStream in;
+        public final long length;
+        /**
+         * The number of the segment in its stream. The log file has the number it will be sealed as
+         */
+        public final long number;
+        /**
+         * The offset of the first record logged after the log was last flushed.
+         * Earlier records are only read to resolve stack traces stored by reference.
+         */
+        public final long start;
+        /**
+         * The index of the log file which is still being written, or null for sealed segments
+         */
+        final LogIndex index;
+
+        Segment(File file, FileInputStream in, long length, LogIndex index) {
+            this(file, in, length, index, 0, 0);
+        }
+
+        Segment(File file, FileInputStream in, long length, LogIndex index, long number, long start) {
+            this.file = file;
+            this.in = in;
+            this.length = length;
+            this.index = index;
+            this.number = number;
+            this.start = start;
+        }
+    }
+
+    private final List<Segment> mSegments;
+    private final List<List<Segment>> mStreams;
+    private final long mGeneration;
+
+    /**
+     * @param segments the segments ordered oldest first
+     */
+    LogSnapshot(List<Segment> segments) {
+        this(segments, new ArrayList<List<Segment>>(), 0);
+    }
+
+    /**
+     * @param segments   the segments of this process ordered oldest first
+     * @param others     the segments of each other process ordered oldest first
+     * @param generation the number of segments that had been compacted when the snapshot was taken
+     */
+    LogSnapshot(List<Segment> segments, List<List<Segment>> others, long generation) {
+        mSegments = Collections.unmodifiableList(new ArrayList<>(segments));
+        List<List<Segment>> streams = new ArrayList<>();
+        streams.add(mSegments);
+        for (List<Segment> other : others) {
+            streams.add(Collections.unmodifiableList(new ArrayList<>(other)));
+        }
+        mStreams = Collections.unmodifiableList(streams);
+        mGeneration = generation;
+    }
+
+    /**
+     * Returns the number of segments that had been compacted when the snapshot was taken
+     * @return
+     */
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the segments written by this process ordered oldest first
+     * @return
+     */
+    public List<Segment> getSegments() {
+        return mSegments;
+    }
+
+    /**
+     * Returns the segments written by each process, starting with this one.
+     * The segments of each process are ordered oldest first.
+     * @return
+     */
+    public List<List<Segment>> getStreams() {
+        return mStreams;
+    }
+
+    /**
+     * Returns a reader for the records in a segment
+     *
+     * @param segment
+     * @return
+     */
+    public static RecordReader openRecords(Segment segment) {
+        return new RecordReader(segment.in, 0, segment.length);
+    }
+
+    @Override
+    public void close() {
+        for (List<Segment> stream : mStreams) {
+            close(stream);
+        }
+    }
+
+    /**
+     * Closes the files of segments that are not part of a snapshot
+     *
+     * @param segments
+     */
+    public static void close(List<Segment> segments) {
+        for (Segment segment : segments) {
+            try {
+                segment.in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Names the files that make up a log shared by several processes.
+ * Each process appends to its own stream so no locking is needed between processes.
+ * The main process writes to the configured log file (e.g. log.txt) and a secondary process
+ * such as "com.example:sync" writes to log.txt@sync. Sealed segments of a stream are numbered
+ * after it (e.g. log.txt@sync.3).
+ *
+ * Each stream also records the number its log file will be sealed as (e.g. log.txt@sync.active)
+ * so other processes can tell which segment holds a position in the stream. Flushing the log
+ * from one process records those positions (see {@link FlushMarker}).
+ */
+class LogStreams {
+
+    private static final char PROCESS_SEPARATOR = '@';
+    private static final String ACTIVE_EXT = "active";
+
+    private LogStreams() {
+    }
+
+    /**
+     * Returns the file a process appends to
+     *
+     * @param logFile     the configured log file
+     * @param processName the name of the process. May be null
+     * @return
+     */
+    public static File streamFor(File logFile, String processName) {
+        String suffix = getProcessSuffix(processName);
+        if (suffix == null) {
+            return logFile;
+        }
+        return new File(logFile.getParentFile(), logFile.getName() + PROCESS_SEPARATOR + suffix);
+    }
+
+    /**
+     * Returns the part of a process name that identifies a secondary process
+     *
+     * @param processName the process name such as "com.example:sync"
+     * @return the suffix safe to use in a file name or null for the main process
+     */
+    static String getProcessSuffix(String processName) {
+        int colon = processName != null ? processName.lastIndexOf(':') : -1;
+        if (colon < 0 || colon == processName.length() - 1) {
+            return null;
+        }
+        StringBuilder suffix = new StringBuilder();
+        for (int i = colon + 1; i < processName.length(); i++) {
+            char c = processName.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-') {
+                suffix.append(c);
+            } else {
+                suffix.append('_');
+            }
+        }
+        return suffix.toString();
+    }
+
+    /**
+     * Returns the number of a sealed segment file
+     *
+     * @param stream the file the stream appends to
+     * @param file
+     * @return -1 if the file is not a segment of the stream
+     */
+    public static long getSegmentNumber(File stream, File file) {
+        String prefix = stream.getName() + ".";
+        String name = file.getName();
+        if (!name.startsWith(prefix) || name.length() == prefix.length()) {
+            return -1;
+        }
+        for (int i = prefix.length(); i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return -1;
+            }
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Lists the sealed segments of a stream ordered oldest first
+     *
+     * @param stream the file the stream appends to
+     * @return
+     */
+    public static List<File> listSegments(final File stream) {
+        List<File> segments = new ArrayList<>();
+        File[] files = stream.getParentFile() != null ? stream.getParentFile().listFiles() : null;
+        if (files != null) {
+            for (File f : files) {
+                if (getSegmentNumber(stream, f) >= 0) {
+                    segments.add(f);
+                }
+            }
+        }
+        Collections.sort(segments, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = getSegmentNumber(stream, a);
+                long y = getSegmentNumber(stream, b);
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        return segments;
+    }
+
+    /**
+     * Lists the streams written by every process that shares a log file.
+     * A stream is listed if its file or any of its segments exist.
+     *
+     * @param logFile the configured log file
+     * @return the files the streams append to
+     */
+    public static List<File> listStreams(File logFile) {
+        List<File> streams = new ArrayList<>();
+        File dir = logFile.getParentFile();
+        File[] files = dir != null ? dir.listFiles() : null;
+        if (files == null) {
+            return streams;
+        }
+        String logName = logFile.getName();
+        for (File f : files) {
+            String name = f.getName();
+            if (!name.startsWith(logName)) {
+                continue;
+            }
+            String rest = name.substring(logName.length());
+            String suffix = "";
+            if (!rest.isEmpty() && rest.charAt(0) == PROCESS_SEPARATOR) {
+                int end = rest.indexOf('.');
+                suffix = end < 0 ? rest : rest.substring(0, end);
+                rest = rest.substring(suffix.length());
+                if (suffix.length() == 1) {
+                    continue;
+                }
+            }
+            File stream = new File(dir, logName + suffix);
+            if ((rest.isEmpty() || getSegmentNumber(stream, f) >= 0) && !streams.contains(stream)) {
+                streams.add(stream);
+            }
+        }
+        Collections.sort(streams);
+        return streams;
+    }
+
+    /**
+     * Returns the number the log file of a stream will be sealed as
+     *
+     * @param stream   the file the stream appends to
+     * @param segments the sealed segments of the stream ordered oldest first
+     * @return
+     */
+    public static long getActiveSegment(File stream, List<File> segments) {
+        long last = segments.isEmpty() ? 0 : getSegmentNumber(stream, segments.get(segments.size() - 1));
+        long active = readActiveSegment(stream);
+        // a stream written before the number was recorded seals its log file after the last segment
+        return active > last ? active : last + 1;
+    }
+
+    /**
+     * Reads the number recorded for the log file of a stream
+     *
+     * @param stream the file the stream appends to
+     * @return -1 if it has not been recorded
+     */
+    public static long readActiveSegment(File stream) {
+        File file = new File(stream.getParentFile(), stream.getName() + "." + ACTIVE_EXT);
+        if (!file.exists()) {
+            return -1;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                long number = raf.readLong();
+                long check = raf.readLong();
+                if (check == ~number) {
+                    return number;
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            // treat as not recorded
+        }
+        return -1;
+    }
+
+    /**
+     * Records the number the log file of a stream will be sealed as.
+     * The file is replaced atomically so other processes never read a partial number.
+     *
+     * @param stream the file the stream appends to
+     * @param number the segment number
+     * @throws IOException
+     */
+    public static void writeActiveSegment(File stream, long number) throws IOException {
+        File file = new File(stream.getParentFile(), stream.getName() + "." + ACTIVE_EXT);
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.writeLong(number);
+            raf.writeLong(~number);
+            raf.setLength(16);
+        } finally {
+            raf.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to write " + file);
+        }
+    }
+}
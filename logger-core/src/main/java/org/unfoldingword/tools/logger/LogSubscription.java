@@ -0,0 +1,169 @@
+package org.unfoldingword.tools.logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A live subscription to new log entries.
+ * Entries are queued in a bounded buffer in sequence order and delivered in batches on the subscriber's
+ * executor, with at most one delivery scheduled at a time.
+ */
+public class LogSubscription {
+
+    /**
+     * What to do with new entries when the subscriber's queue is full
+     */
+    public enum Overflow {
+        /**
+         * Discard the oldest queued entries so the subscriber always catches up to the newest
+         */
+        Coalesce,
+        /**
+         * Discard new entries until the subscriber catches up
+         */
+        Drop
+    }
+
+    private final LogPublisher mPublisher;
+    private final LogFilter mFilter;
+    private final LogListener mListener;
+    private final Executor mExecutor;
+    private final int mCapacity;
+    private final Overflow mOverflow;
+    private final ArrayDeque<LogEntry> mQueue = new ArrayDeque<>();
+    private int mDropped = 0;
+    private long mTotalDropped = 0;
+    private boolean mScheduled = false;
+    private volatile boolean mCancelled = false;
+    private final Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    LogSubscription(LogPublisher publisher, LogFilter filter, LogListener listener, Executor executor, int capacity, Overflow overflow) {
+        if (listener == null || executor == null) {
+            throw new IllegalArgumentException("The listener and executor cannot be null");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1");
+        }
+        mPublisher = publisher;
+        mFilter = filter;
+        mListener = listener;
+        mExecutor = executor;
+        mCapacity = capacity;
+        mOverflow = overflow == null ? Overflow.Coalesce : overflow;
+    }
+
+    /**
+     * Stops delivering entries. Entries that have not been delivered are discarded.
+     */
+    public void cancel() {
+        mCancelled = true;
+        mPublisher.remove(this);
+        synchronized (this) {
+            mQueue.clear();
+        }
+    }
+
+    /**
+     * Checks if the subscription has been cancelled
+     * @return
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Returns the total number of entries discarded because the subscriber fell behind
+     * @return
+     */
+    public synchronized long getDroppedCount() {
+        return mTotalDropped;
+    }
+
+    /**
+     * Queues a copy of an entry for delivery.
+     * The subscriber receives its own copy because the entry is still waiting to be written.
+     * This runs on the thread that logged the entry.
+     *
+     * @param entry
+     */
+    void offer(LogEntry entry) {
+        if (mCancelled || (mFilter != null && !mFilter.accept(entry))) {
+            return;
+        }
+        entry = entry.copy();
+        boolean schedule;
+        synchronized (this) {
+            if (mQueue.size() >= mCapacity) {
+                mDropped++;
+                mTotalDropped++;
+                if (mOverflow == Overflow.Drop) {
+                    return;
+                }
+                mQueue.pollFirst();
+            }
+            addLocked(entry);
+            schedule = !mScheduled;
+            mScheduled = true;
+        }
+        if (schedule) {
+            try {
+                mExecutor.execute(mDeliver);
+            } catch (RuntimeException e) {
+                // the executor was shut down
+                synchronized (this) {
+                    mScheduled = false;
+                }
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Adds an entry to the queue in sequence order.
+     * Entries are published almost in order so this rarely has to look past the last entry.
+     *
+     * @param entry
+     */
+    private void addLocked(LogEntry entry) {
+        ArrayDeque<LogEntry> newer = null;
+        while (!mQueue.isEmpty() && mQueue.peekLast().sequence > entry.sequence) {
+            if (newer == null) {
+                newer = new ArrayDeque<>();
+            }
+            newer.addFirst(mQueue.pollLast());
+        }
+        mQueue.addLast(entry);
+        if (newer != null) {
+            mQueue.addAll(newer);
+        }
+    }
+
+    /**
+     * Hands everything queued to the listener.
+     * This runs on the subscriber's executor.
+     */
+    private void deliver() {
+        List<LogEntry> batch;
+        int dropped;
+        synchronized (this) {
+            mScheduled = false;
+            if (mQueue.isEmpty() && mDropped == 0) {
+                return;
+            }
+            batch = new ArrayList<>(mQueue);
+            mQueue.clear();
+            dropped = mDropped;
+            mDropped = 0;
+        }
+        if (!mCancelled) {
+            mListener.onLogEntries(batch, dropped);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads records framed by {@link RecordWriter}.
+ * Reading stops at the first record that is incomplete or fails its checksum.
+ * Instances are not thread safe.
+ */
+class RecordReader {
+
+    private final InputStream mIn;
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mHeader = new byte[RecordWriter.HEADER_LENGTH];
+    private byte[] mPayload = new byte[512];
+    private int mPayloadLength = 0;
+    private long mOffset;
+    private final long mLimit;
+    private boolean mCorrupt = false;
+
+    /**
+     * @param in          the stream positioned at the start of a record
+     * @param startOffset the file offset of the stream position
+     */
+    public RecordReader(InputStream in, long startOffset) {
+        this(in, startOffset, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param in          the stream positioned at the start of a record
+     * @param startOffset the file offset of the stream position
+     * @param limit       the file offset at which to stop reading
+     */
+    public RecordReader(InputStream in, long startOffset, long limit) {
+        mIn = new BufferedInputStream(in, 8192);
+        mOffset = startOffset;
+        mLimit = limit;
+    }
+
+    /**
+     * Reads the next record
+     *
+     * @return true if a valid record was read
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        if (mCorrupt || mOffset >= mLimit) {
+            return false;
+        }
+        int read = readFully(mHeader, 0, mHeader.length);
+        if (read == 0) {
+            return false;
+        }
+        if (read < mHeader.length || mHeader[8] != ' ' || mHeader[17] != ' ') {
+            mCorrupt = true;
+            return false;
+        }
+        long length = parseHex(mHeader, 0);
+        long crc = parseHex(mHeader, 9);
+        if (length < 0 || crc < 0 || length > RecordWriter.MAX_RECORD_LENGTH) {
+            mCorrupt = true;
+            return false;
+        }
+        int total = (int) length + 1;
+        if (mPayload.length < total) {
+            mPayload = new byte[Math.max(total, mPayload.length * 2)];
+        }
+        if (readFully(mPayload, 0, total) < total || mPayload[total - 1] != '\n') {
+            mCorrupt = true;
+            return false;
+        }
+        mCrc.reset();
+        mCrc.update(mPayload, 0, (int) length);
+        if (mCrc.getValue() != crc) {
+            mCorrupt = true;
+            return false;
+        }
+        mPayloadLength = (int) length;
+        mOffset += mHeader.length + total;
+        return true;
+    }
+
+    /**
+     * Returns the payload buffer of the last record. Only the first {@link #payloadLength()} bytes are valid.
+     * @return
+     */
+    public byte[] payload() {
+        return mPayload;
+    }
+
+    /**
+     * Returns the length of the last record payload
+     * @return
+     */
+    public int payloadLength() {
+        return mPayloadLength;
+    }
+
+    /**
+     * Returns the file offset just past the last valid record
+     * @return
+     */
+    public long offset() {
+        return mOffset;
+    }
+
+    /**
+     * Checks if reading stopped because of a torn or damaged record rather than the end of the stream
+     * @return
+     */
+    public boolean isCorrupt() {
+        return mCorrupt;
+    }
+
+    /**
+     * Checks if the bytes look like the start of a framed record
+     *
+     * @param bytes
+     * @param length the number of valid bytes
+     * @return
+     */
+    public static boolean isRecordHeader(byte[] bytes, int length) {
+        return length >= RecordWriter.HEADER_LENGTH && bytes[8] == ' ' && bytes[17] == ' '
+                && parseHex(bytes, 0) >= 0 && parseHex(bytes, 9) >= 0;
+    }
+
+    /**
+     * Reads a single record at a known offset without moving the channel position
+     *
+     * @param channel the segment channel
+     * @param offset  the offset of the record
+     * @return the payload or null if there is no valid record at the offset
+     * @throws IOException
+     */
+    public static byte[] readAt(FileChannel channel, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RecordWriter.HEADER_LENGTH);
+        readFully(channel, header, offset);
+        if (!isRecordHeader(header.array(), header.position())) {
+            return null;
+        }
+        long length = parseHex(header.array(), 0);
+        long crc = parseHex(header.array(), 9);
+        if (length > RecordWriter.MAX_RECORD_LENGTH) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate((int) length);
+        readFully(channel, payload, offset + RecordWriter.HEADER_LENGTH);
+        if (payload.hasRemaining()) {
+            return null;
+        }
+        CRC32 check = new CRC32();
+        check.update(payload.array(), 0, (int) length);
+        return check.getValue() == crc ? payload.array() : null;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read == -1) {
+                break;
+            }
+            position += read;
+        }
+    }
+
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    private int readFully(byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = mIn.read(buffer, offset + total, length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Parses 8 hex characters
+     * @return -1 if the characters are not valid hex
+     */
+    private static long parseHex(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            int b = bytes[i];
+            int digit;
+            if (b >= '0' && b <= '9') {
+                digit = b - '0';
+            } else if (b >= 'a' && b <= 'f') {
+                digit = b - 'a' + 10;
+            } else {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
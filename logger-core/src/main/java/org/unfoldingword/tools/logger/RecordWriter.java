@@ -0,0 +1,58 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Frames records with their length and a CRC32 of their content so torn writes can be detected.
+ * A framed record is a single line in the log file
+ * <pre>
+ * llllllll cccccccc payload\n
+ * </pre>
+ * where l is the payload length in bytes and c is the CRC32 of the payload, both in hex.
+ * The payload must not contain a newline.
+ * Instances are not thread safe.
+ */
+class RecordWriter {
+
+    public static final int HEADER_LENGTH = 18;
+    public static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mHeader = new byte[HEADER_LENGTH];
+
+    /**
+     * Writes a framed record
+     *
+     * @param out     the stream to write to
+     * @param payload the record content
+     * @param length  the number of payload bytes excluding any trailing newline. At most {@link #MAX_RECORD_LENGTH}
+     * @return the number of bytes written
+     * @throws IOException
+     * @throws IllegalArgumentException if the payload is longer than readers accept
+     */
+    public int write(OutputStream out, byte[] payload, int length) throws IOException {
+        if (length > MAX_RECORD_LENGTH) {
+            // it would read back as a torn record and recovery would truncate everything after it
+            throw new IllegalArgumentException("The record is " + length + " bytes long");
+        }
+        mCrc.reset();
+        mCrc.update(payload, 0, length);
+        writeHex(mHeader, 0, length);
+        mHeader[8] = ' ';
+        writeHex(mHeader, 9, (int) mCrc.getValue());
+        mHeader[17] = ' ';
+        out.write(mHeader);
+        out.write(payload, 0, length);
+        out.write('\n');
+        return HEADER_LENGTH + length + 1;
+    }
+
+    private static void writeHex(byte[] buffer, int offset, int value) {
+        for (int i = 7; i >= 0; i--) {
+            buffer[offset + i] = HEX[value & 0xF];
+            value >>>= 4;
+        }
+    }
+}
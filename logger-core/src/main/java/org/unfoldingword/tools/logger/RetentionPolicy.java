@@ -0,0 +1,82 @@
+package org.unfoldingword.tools.logger;
+
+/**
+ * Decides how long entries of each level are kept.
+ * Old segments are compacted in the background so that entries outside their level's limits
+ * are removed while more important entries survive. Levels without a rule are only limited by
+ * the maximum log size.
+ *
+ * <pre>
+ * new RetentionPolicy()
+ *         .keep(LogLevel.Error, 14 * RetentionPolicy.DAY, 2 * 1024 * 1024)
+ *         .keep(LogLevel.Warning, 3 * RetentionPolicy.DAY, RetentionPolicy.UNLIMITED)
+ *         .keep(LogLevel.Info, RetentionPolicy.UNLIMITED, 200 * 1024);
+ * </pre>
+ */
+public class RetentionPolicy {
+
+    public static final long UNLIMITED = -1;
+    public static final long DAY = 24 * 60 * 60 * 1000L;
+    private final long[] mMaxAge;
+    private final long[] mMaxBytes;
+
+    public RetentionPolicy() {
+        int levels = LogLevel.values().length;
+        mMaxAge = new long[levels];
+        mMaxBytes = new long[levels];
+        for (int i = 0; i < levels; i++) {
+            mMaxAge[i] = UNLIMITED;
+            mMaxBytes[i] = UNLIMITED;
+        }
+    }
+
+    /**
+     * Sets the limits for a level
+     *
+     * @param level        the log level
+     * @param maxAgeMillis entries older than this are removed, or {@link #UNLIMITED}
+     * @param maxBytes     only the newest entries of the level that fit in this many bytes are kept, or {@link #UNLIMITED}
+     * @return this policy
+     */
+    public synchronized RetentionPolicy keep(LogLevel level, long maxAgeMillis, long maxBytes) {
+        mMaxAge[level.getIndex()] = maxAgeMillis;
+        mMaxBytes[level.getIndex()] = maxBytes;
+        return this;
+    }
+
+    /**
+     * Returns the maximum age of entries of a level
+     *
+     * @param level
+     * @return {@link #UNLIMITED} if there is no limit
+     */
+    public synchronized long getMaxAge(LogLevel level) {
+        return mMaxAge[level.getIndex()];
+    }
+
+    /**
+     * Returns the maximum bytes of entries of a level
+     *
+     * @param level
+     * @return {@link #UNLIMITED} if there is no limit
+     */
+    public synchronized long getMaxBytes(LogLevel level) {
+        return mMaxBytes[level.getIndex()];
+    }
+
+    /**
+     * Checks if an entry is still within its level's limits
+     *
+     * @param level      the entry level
+     * @param age        the age of the entry in milliseconds
+     * @param newerBytes the bytes taken by newer entries of the same level
+     * @param size       the bytes taken by the entry
+     * @return
+     */
+    boolean retains(LogLevel level, long age, long newerBytes, long size) {
+        long maxAge = getMaxAge(level);
+        long maxBytes = getMaxBytes(level);
+        return (maxAge == UNLIMITED || age <= maxAge)
+                && (maxBytes == UNLIMITED || newerBytes + size <= maxBytes);
+    }
+}
@@ -0,0 +1,128 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the record in a segment holding each distinct stack trace so repeats can be stored by reference.
+ * Different traces can share a fingerprint so a reference is only made to a record holding identical text.
+ */
+class StackOffsets {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A stack trace stored in the segment
+     */
+    private static class Stored {
+        final String text;
+        final long offset;
+
+        Stored(String text, long offset) {
+            this.text = text;
+            this.offset = offset;
+        }
+    }
+
+    private final Map<Long, Stored> mStacks = new HashMap<>();
+
+    /**
+     * Looks for an earlier record holding the same stack trace.
+     * If there is none the trace is remembered as being stored at the given offset.
+     *
+     * @param fingerprint identifies the stack trace
+     * @param text        the stack trace
+     * @param offset      the offset of the record about to hold the trace
+     * @return the offset of the earlier record or -1 if the trace must be stored in full
+     */
+    public long reference(long fingerprint, String text, long offset) {
+        if (fingerprint == 0 || text == null) {
+            return -1;
+        }
+        Stored stored = mStacks.get(fingerprint);
+        if (stored == null) {
+            mStacks.put(fingerprint, new Stored(text, offset));
+            return -1;
+        }
+        // the first trace with a fingerprint keeps it. Colliding traces are stored in full
+        return stored.text.equals(text) ? stored.offset : -1;
+    }
+
+    /**
+     * Forgets a stack trace whose record was not written after all
+     *
+     * @param fingerprint the fingerprint of the stack trace
+     * @param offset      the offset the record would have been written at
+     */
+    public void forget(long fingerprint, long offset) {
+        Stored stored = mStacks.get(fingerprint);
+        if (stored != null && stored.offset == offset) {
+            mStacks.remove(fingerprint);
+        }
+    }
+
+    /**
+     * Returns the stack traces by the offset of the record holding them
+     *
+     * @return
+     */
+    public Map<Long, String> byOffset() {
+        Map<Long, String> stacks = new HashMap<>();
+        for (Stored stored : mStacks.values()) {
+            stacks.put(stored.offset, stored.text);
+        }
+        return stacks;
+    }
+
+    /**
+     * Writes the stack traces to a stream
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(mStacks.size());
+        for (Map.Entry<Long, Stored> e : mStacks.entrySet()) {
+            out.writeLong(e.getKey());
+            out.writeLong(e.getValue().offset);
+            byte[] text = e.getValue().text.getBytes(UTF8);
+            out.writeInt(text.length);
+            out.write(text);
+        }
+    }
+
+    /**
+     * Reads stack traces written by {@link #writeTo(DataOutputStream)}
+     *
+     * @param in
+     * @return
+     * @throws IOException if the data is damaged
+     */
+    public static StackOffsets readFrom(DataInputStream in) throws IOException {
+        StackOffsets stacks = new StackOffsets();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            long fingerprint = in.readLong();
+            long offset = in.readLong();
+            int length = in.readInt();
+            if (length < 0 || length > RecordWriter.MAX_RECORD_LENGTH) {
+                throw new IOException("Damaged stack traces");
+            }
+            byte[] text = new byte[length];
+            in.readFully(text);
+            stacks.mStacks.put(fingerprint, new Stored(new String(text, UTF8), offset));
+        }
+        return stacks;
+    }
+
+    /**
+     * Forgets all stack traces, e.g. when a new segment is started
+     */
+    public void clear() {
+        mStacks.clear();
+    }
+}
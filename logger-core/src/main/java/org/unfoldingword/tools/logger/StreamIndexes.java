@@ -0,0 +1,86 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the indexes of the segments written by other processes between searches.
+ * Those processes may append to, seal or compact their segments at any time, so each index
+ * remembers the segment number and the length it covers. A log file that has grown is only
+ * indexed from where the last search stopped and a segment that changed otherwise is indexed again.
+ */
+class StreamIndexes {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The index of the records in a segment up to a length
+     */
+    private static class Cached {
+        final long number;
+        final LogIndex index = new LogIndex();
+        long length = 0;
+
+        Cached(long number) {
+            this.number = number;
+        }
+    }
+
+    private final Map<File, Cached> mIndexes = new HashMap<>();
+
+    /**
+     * Returns the index of a segment in a snapshot.
+     * The index may also cover records written after the snapshot was taken.
+     *
+     * @param segment the segment
+     * @return
+     * @throws IOException
+     */
+    public synchronized LogIndex get(LogSnapshot.Segment segment) throws IOException {
+        Cached cached = mIndexes.get(segment.file);
+        if (cached == null || cached.number != segment.number || cached.length > segment.length) {
+            // new, replaced by its owner or sealed into a segment with the same name
+            cached = new Cached(segment.number);
+            mIndexes.put(segment.file, cached);
+        }
+        if (cached.length < segment.length) {
+            FileChannel channel = segment.in.getChannel();
+            channel.position(cached.length);
+            RecordReader records = new RecordReader(segment.in, cached.length, segment.length);
+            JsonLineReader reader = new JsonLineReader();
+            long offset = cached.length;
+            while (records.next()) {
+                LogEntry entry = reader.parse(new String(records.payload(), 0, records.payloadLength(), UTF8));
+                if (entry != null) {
+                    if (entry.stackAt >= 0) {
+                        // the stack trace was indexed with an earlier record
+                        byte[] stack = RecordReader.readAt(channel, entry.stackAt);
+                        LogEntry stackEntry = stack != null ? reader.parse(new String(stack, UTF8)) : null;
+                        entry.setDetails(stackEntry != null ? stackEntry.getDetails() : null);
+                    }
+                    synchronized (cached.index) {
+                        cached.index.add(entry, offset);
+                    }
+                }
+                offset = records.offset();
+            }
+            // a record still being written is indexed by the next search
+            cached.length = offset;
+        }
+        return cached.index;
+    }
+
+    /**
+     * Forgets the indexes of segments that no longer exist
+     *
+     * @param files the segments still in use
+     */
+    public synchronized void retain(Collection<File> files) {
+        mIndexes.keySet().retainAll(files);
+    }
+}
@@ -0,0 +1,145 @@
+package org.unfoldingword.tools.logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Writes an uncompressed ustar archive to a channel.
+ * File content is copied with {@link FileChannel#transferTo} so memory use does not depend on file size.
+ */
+class TarWriter {
+
+    private static final int BLOCK = 512;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final WritableByteChannel mOut;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(BLOCK);
+    private final ByteBuffer mPadding = ByteBuffer.allocate(BLOCK);
+
+    /**
+     * @param out the channel to write to. It is not closed by this writer.
+     */
+    public TarWriter(WritableByteChannel out) {
+        mOut = out;
+    }
+
+    /**
+     * Adds the start of a file to the archive
+     *
+     * @param name     the path within the archive
+     * @param source   the file to copy from
+     * @param length   the number of bytes to copy from the start of the file
+     * @param modified the modification time in milliseconds
+     * @throws IOException
+     */
+    public void addFile(String name, FileChannel source, long length, long modified) throws IOException {
+        addFile(name, source, 0, length, modified);
+    }
+
+    /**
+     * Adds a region of a file to the archive
+     *
+     * @param name     the path within the archive
+     * @param source   the file to copy from
+     * @param start    the offset of the first byte to copy
+     * @param length   the number of bytes to copy
+     * @param modified the modification time in milliseconds
+     * @throws IOException
+     */
+    public void addFile(String name, FileChannel source, long start, long length, long modified) throws IOException {
+        writeHeader(name, length, modified);
+        long copied = 0;
+        while (copied < length) {
+            long sent = source.transferTo(start + copied, length - copied, mOut);
+            if (sent <= 0) {
+                throw new IOException("Unexpected end of " + name);
+            }
+            copied += sent;
+        }
+        pad(length);
+    }
+
+    /**
+     * Adds a small in memory file to the archive
+     *
+     * @param name     the path within the archive
+     * @param content  the file content
+     * @param modified the modification time in milliseconds
+     * @throws IOException
+     */
+    public void addBytes(String name, byte[] content, long modified) throws IOException {
+        writeHeader(name, content.length, modified);
+        writeFully(ByteBuffer.wrap(content));
+        pad(content.length);
+    }
+
+    /**
+     * Writes the end of archive marker
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        for (int i = 0; i < 2; i++) {
+            mPadding.clear();
+            writeFully(mPadding);
+        }
+    }
+
+    private void writeHeader(String name, long size, long modified) throws IOException {
+        byte[] nameBytes = name.getBytes(UTF8);
+        if (nameBytes.length > 100) {
+            throw new IOException("The name is too long " + name);
+        }
+        byte[] h = mHeader.array();
+        java.util.Arrays.fill(h, (byte) 0);
+        System.arraycopy(nameBytes, 0, h, 0, nameBytes.length);
+        writeOctal(h, 100, 8, 0644);
+        writeOctal(h, 108, 8, 0);
+        writeOctal(h, 116, 8, 0);
+        writeOctal(h, 124, 12, size);
+        writeOctal(h, 136, 12, modified / 1000);
+        h[156] = '0';
+        byte[] magic = "ustar\u000000".getBytes(UTF8);
+        System.arraycopy(magic, 0, h, 257, magic.length);
+        // the checksum is calculated with the checksum field set to spaces
+        for (int i = 148; i < 156; i++) {
+            h[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : h) {
+            checksum += b & 0xFF;
+        }
+        writeOctal(h, 148, 7, checksum);
+        h[155] = ' ';
+        mHeader.clear();
+        writeFully(mHeader);
+    }
+
+    /**
+     * Writes a zero padded octal number followed by a nul
+     */
+    private static void writeOctal(byte[] buffer, int offset, int length, long value) {
+        for (int i = offset + length - 2; i >= offset; i--) {
+            buffer[i] = (byte) ('0' + (value & 7));
+            value >>>= 3;
+        }
+        buffer[offset + length - 1] = 0;
+    }
+
+    private void pad(long length) throws IOException {
+        int remainder = (int) (length % BLOCK);
+        if (remainder > 0) {
+            mPadding.clear();
+            mPadding.limit(BLOCK - remainder);
+            writeFully(mPadding);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mOut.write(buffer);
+        }
+    }
+}
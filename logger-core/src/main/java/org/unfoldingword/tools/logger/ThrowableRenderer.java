@@ -0,0 +1,205 @@
+package org.unfoldingword.tools.logger;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Renders exception stack traces in the same format as {@link Throwable#printStackTrace()}.
+ * Frames are appended straight into a single buffer, each trace is capped at
+ * {@link #MAX_FRAMES} frames and frames shared with the enclosing trace are elided as "... N more".
+ *
+ * Every rendering is identified by a fingerprint of the exception classes, messages and frames.
+ * Recently rendered traces are cached by fingerprint so logging the same exception repeatedly
+ * (or sending it to both LogCat and the log file) only renders it once. Fingerprints can collide
+ * so a cached rendering is only reused when its exceptions are identical.
+ */
+public final class ThrowableRenderer {
+
+    public static final int MAX_FRAMES = 64;
+    private static final int MAX_CAUSES = 16;
+    private static final int CACHE_SIZE = 32;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final Map<Long, Cached> sCache = new LinkedHashMap<Long, Cached>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Cached> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * A cached rendering and the exceptions it was rendered from
+     */
+    private static final class Cached {
+        final int depth;
+        final String[] classes;
+        final String[] messages;
+        final StackTraceElement[][] traces;
+        final String text;
+
+        Cached(Throwable[] chain, StackTraceElement[][] traces, int depth, String text) {
+            this.depth = depth;
+            this.classes = new String[depth];
+            this.messages = new String[depth];
+            this.traces = Arrays.copyOf(traces, depth);
+            for (int i = 0; i < depth; i++) {
+                classes[i] = chain[i].getClass().getName();
+                messages[i] = chain[i].getMessage();
+            }
+            this.text = text;
+        }
+
+        /**
+         * Checks if the rendering was made from identical exceptions
+         */
+        boolean matches(Throwable[] chain, StackTraceElement[][] traces, int depth) {
+            if (depth != this.depth) {
+                return false;
+            }
+            for (int i = 0; i < depth; i++) {
+                if (!classes[i].equals(chain[i].getClass().getName())
+                        || !equal(messages[i], chain[i].getMessage())
+                        || !Arrays.equals(this.traces[i], traces[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * A rendered stack trace
+     */
+    public static final class Rendered {
+        public final long fingerprint;
+        public final String text;
+
+        Rendered(long fingerprint, String text) {
+            this.fingerprint = fingerprint;
+            this.text = text;
+        }
+    }
+
+    private ThrowableRenderer() {
+    }
+
+    /**
+     * Renders a stack trace, reusing a recent rendering of an identical trace
+     *
+     * @param throwable the exception
+     * @return null if the exception is null
+     */
+    public static Rendered render(Throwable throwable) {
+        if (throwable == null) {
+            return null;
+        }
+        StackTraceElement[][] traces = new StackTraceElement[MAX_CAUSES][];
+        Throwable[] chain = new Throwable[MAX_CAUSES];
+        int depth = 0;
+        long fingerprint = FNV_OFFSET;
+        for (Throwable t = throwable; t != null && depth < MAX_CAUSES; t = t.getCause()) {
+            if (isInChain(chain, depth, t)) {
+                break;
+            }
+            chain[depth] = t;
+            traces[depth] = t.getStackTrace();
+            fingerprint = mix(fingerprint, t.getClass().getName().hashCode());
+            fingerprint = mix(fingerprint, t.getMessage() == null ? 0 : t.getMessage().hashCode());
+            for (StackTraceElement frame : traces[depth]) {
+                fingerprint = mix(fingerprint, frame.getClassName().hashCode());
+                fingerprint = mix(fingerprint, frame.getMethodName().hashCode());
+                fingerprint = mix(fingerprint, frame.getLineNumber());
+            }
+            depth++;
+        }
+        if (fingerprint == 0) {
+            // 0 means no stack
+            fingerprint = 1;
+        }
+
+        String text = null;
+        synchronized (sCache) {
+            Cached cached = sCache.get(fingerprint);
+            if (cached != null && cached.matches(chain, traces, depth)) {
+                text = cached.text;
+            }
+        }
+        if (text == null) {
+            StringBuilder out = new StringBuilder(1024);
+            for (int i = 0; i < depth; i++) {
+                if (i > 0) {
+                    out.append("Caused by: ");
+                }
+                out.append(chain[i]).append('\n');
+                appendFrames(out, traces[i], i > 0 ? traces[i - 1] : null);
+            }
+            text = out.toString();
+            Cached cached = new Cached(chain, traces, depth, text);
+            synchronized (sCache) {
+                sCache.put(fingerprint, cached);
+            }
+        }
+        return new Rendered(fingerprint, text);
+    }
+
+    /**
+     * Appends the frames of a trace, eliding those in common with the enclosing trace
+     */
+    private static void appendFrames(StringBuilder out, StackTraceElement[] trace, StackTraceElement[] enclosing) {
+        int m = trace.length - 1;
+        if (enclosing != null) {
+            int n = enclosing.length - 1;
+            while (m >= 0 && n >= 0 && trace[m].equals(enclosing[n])) {
+                m--;
+                n--;
+            }
+        }
+        int unique = m + 1;
+        int shown = Math.min(unique, MAX_FRAMES);
+        for (int i = 0; i < shown; i++) {
+            appendFrame(out, trace[i]);
+        }
+        int more = trace.length - shown;
+        if (more > 0) {
+            out.append("\t... ").append(more).append(" more\n");
+        }
+    }
+
+    private static void appendFrame(StringBuilder out, StackTraceElement frame) {
+        out.append("\tat ").append(frame.getClassName()).append('.').append(frame.getMethodName());
+        if (frame.isNativeMethod()) {
+            out.append("(Native Method)");
+        } else if (frame.getFileName() == null) {
+            out.append("(Unknown Source)");
+        } else {
+            out.append('(').append(frame.getFileName());
+            if (frame.getLineNumber() >= 0) {
+                out.append(':').append(frame.getLineNumber());
+            }
+            out.append(')');
+        }
+        out.append('\n');
+    }
+
+    private static boolean isInChain(Throwable[] chain, int length, Throwable t) {
+        for (int i = 0; i < length; i++) {
+            if (chain[i] == t) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long mix(long hash, int value) {
+        for (int i = 0; i < 4; i++) {
+            hash ^= (value >>> (i * 8)) & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
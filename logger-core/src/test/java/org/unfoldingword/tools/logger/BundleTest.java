@@ -0,0 +1,101 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the tar archives written by {@link TarWriter} and {@link FileLogger#exportBundle}
+ */
+public class BundleTest extends LoggerTestCase {
+
+    @Test
+    public void archiveRoundTrip() throws Exception {
+        File source = new File(mDir, "source");
+        FileUtils.writeStringToFile(source, "0123456789");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TarWriter tar = new TarWriter(Channels.newChannel(bytes));
+        tar.addBytes("a.txt", "hello".getBytes("UTF-8"), 1000);
+        FileInputStream in = new FileInputStream(source);
+        try {
+            tar.addFile("b.txt", in.getChannel(), 3, 4, 1000);
+        } finally {
+            in.close();
+        }
+        tar.finish();
+
+        byte[] archive = bytes.toByteArray();
+        assertEquals(0, archive.length % 512);
+        Map<String, String> files = readArchive(archive);
+        assertEquals(2, files.size());
+        assertEquals("hello", files.get("a.txt"));
+        assertEquals("3456", files.get("b.txt"));
+    }
+
+    @Test
+    public void flushedEntriesAreNotExported() throws Exception {
+        File other = LogStreams.streamFor(mLogFile, "com.example:sync");
+        append(other, new LogEntry(new Date(), LogLevel.Info, TAG, "other before flush"));
+        LogStreams.writeActiveSegment(other, 0);
+        FileLogger logger = newLogger();
+        logger.log(LogLevel.Info, TAG, "own before flush");
+        assertTrue(logger.sync(5000));
+        logger.flush();
+        logger.log(LogLevel.Info, TAG, "own after flush");
+        assertTrue(logger.sync(5000));
+        append(other, new LogEntry(new Date(), LogLevel.Info, TAG, "other after flush"));
+        File trace = new File(mDir, "trace.txt");
+        FileUtils.writeStringToFile(trace, "java.lang.IllegalStateException: boom");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        logger.exportBundle(bytes, new File[]{trace, new File(mDir, "missing.txt")});
+        close(logger);
+
+        Map<String, String> files = readArchive(bytes.toByteArray());
+        StringBuilder logs = new StringBuilder();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            if (file.getKey().startsWith("logs/")) {
+                logs.append(file.getValue());
+            }
+        }
+        assertFalse(logs.toString().contains("before flush"));
+        assertTrue(logs.toString().contains("own after flush"));
+        assertTrue(logs.toString().contains("other after flush"));
+        assertTrue(files.get("manifest.json").contains("\"start\":"));
+        assertEquals("java.lang.IllegalStateException: boom", files.get("stacktraces/trace.txt"));
+    }
+
+    /**
+     * Reads the files in a tar archive
+     *
+     * @param archive the archive
+     * @return the content of each file by name in archive order
+     * @throws IOException
+     */
+    private static Map<String, String> readArchive(byte[] archive) throws IOException {
+        Map<String, String> files = new LinkedHashMap<>();
+        int offset = 0;
+        while (offset + 512 <= archive.length && archive[offset] != 0) {
+            int nameLength = 0;
+            while (nameLength < 100 && archive[offset + nameLength] != 0) {
+                nameLength++;
+            }
+            String name = new String(archive, offset, nameLength, "UTF-8");
+            int size = Integer.parseInt(new String(archive, offset + 124, 11, "US-ASCII"), 8);
+            files.put(name, new String(archive, offset + 512, size, "UTF-8"));
+            offset += 512 + (size + 511) / 512 * 512;
+        }
+        return files;
+    }
+}
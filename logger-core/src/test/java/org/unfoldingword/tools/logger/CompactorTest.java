@@ -0,0 +1,228 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how retention policies are applied to log segments
+ */
+public class CompactorTest extends LoggerTestCase {
+
+    private static final long NOW = 100 * RetentionPolicy.DAY;
+    private final List<LogSnapshot.Segment> mSegments = new ArrayList<>();
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        LogSnapshot.close(mSegments);
+        super.tearDown();
+    }
+
+    @Test
+    public void policyLimitsEachLevel() throws Exception {
+        RetentionPolicy policy = new RetentionPolicy()
+                .keep(LogLevel.Error, 14 * RetentionPolicy.DAY, RetentionPolicy.UNLIMITED)
+                .keep(LogLevel.Info, RetentionPolicy.UNLIMITED, 100);
+        assertTrue(policy.retains(LogLevel.Error, 14 * RetentionPolicy.DAY, 1000000, 10));
+        assertFalse(policy.retains(LogLevel.Error, 14 * RetentionPolicy.DAY + 1, 0, 10));
+        assertTrue(policy.retains(LogLevel.Info, 1000 * RetentionPolicy.DAY, 90, 10));
+        assertFalse(policy.retains(LogLevel.Info, 0, 91, 10));
+        // levels without a rule are kept
+        assertTrue(policy.retains(LogLevel.Warning, 1000 * RetentionPolicy.DAY, 1000000, 10));
+        assertEquals(RetentionPolicy.UNLIMITED, policy.getMaxAge(LogLevel.Warning));
+    }
+
+    @Test
+    public void entriesAreDroppedByAge() throws Exception {
+        addSegment(new LogEntry[]{
+                entry(LogLevel.Info, "old info", 10),
+                entry(LogLevel.Error, "old error", 10),
+                entry(LogLevel.Warning, "old warning", 10),
+                entry(LogLevel.Info, "new info", 0)
+        }, null);
+        RetentionPolicy policy = new RetentionPolicy()
+                .keep(LogLevel.Info, RetentionPolicy.DAY, RetentionPolicy.UNLIMITED)
+                .keep(LogLevel.Error, 30 * RetentionPolicy.DAY, RetentionPolicy.UNLIMITED);
+        Compactor compactor = new Compactor(policy, mSegments, NOW);
+        compactor.measure();
+        assertEquals(1, compactor.countDropped(0));
+
+        File out = new File(mDir, "compacted");
+        Compactor.Result result = compactor.rewrite(0, out);
+        assertEquals(3, result.kept);
+        assertEquals(1, result.dropped);
+        assertEquals(out.length(), result.length);
+        List<LogEntry> entries = readSegment(out);
+        assertEquals(3, entries.size());
+        assertEquals("old error", entries.get(0).message);
+        assertEquals("old warning", entries.get(1).message);
+        assertEquals("new info", entries.get(2).message);
+    }
+
+    @Test
+    public void newestEntriesAreKeptByBytes() throws Exception {
+        LogEntry[] older = {entry(LogLevel.Info, "info 0", 0), entry(LogLevel.Error, "error 0", 0)};
+        LogEntry[] newer = {entry(LogLevel.Info, "info 1", 0), entry(LogLevel.Info, "info 2", 0)};
+        addSegment(older, null);
+        addSegment(newer, null);
+        // room for the two newest info entries only
+        long infoBytes = recordSize(newer[0]) + recordSize(newer[1]);
+        RetentionPolicy policy = new RetentionPolicy().keep(LogLevel.Info, RetentionPolicy.UNLIMITED, infoBytes);
+        Compactor compactor = new Compactor(policy, mSegments, NOW);
+        compactor.measure();
+        assertEquals(1, compactor.countDropped(0));
+        assertEquals(0, compactor.countDropped(1));
+
+        File out = new File(mDir, "compacted");
+        Compactor.Result result = compactor.rewrite(0, out);
+        List<LogEntry> entries = readSegment(out);
+        assertEquals(1, entries.size());
+        assertEquals("error 0", entries.get(0).message);
+        assertArrayEquals(new long[]{0}, result.index.get("error"));
+        assertArrayEquals(new long[0], result.index.get("info"));
+    }
+
+    @Test
+    public void stackIsKeptWhenItsHolderIsDropped() throws Exception {
+        String stack = "java.lang.IllegalStateException: boom\n\tat Foo.bar(Foo.java:1)\n";
+        LogEntry holder = entry(LogLevel.Warning, "warning", 10);
+        holder.setDetails(stack);
+        holder.stackFingerprint = 42;
+        LogEntry first = entry(LogLevel.Error, "first", 10);
+        first.setDetails(stack);
+        first.stackFingerprint = 42;
+        LogEntry second = entry(LogLevel.Error, "second", 0);
+        second.setDetails(stack);
+        second.stackFingerprint = 42;
+        // both errors refer to the warning's copy of the stack
+        addSegment(new LogEntry[]{holder, first, second}, new long[]{-1, 0, 0});
+        RetentionPolicy policy = new RetentionPolicy().keep(LogLevel.Warning, RetentionPolicy.DAY, RetentionPolicy.UNLIMITED);
+        Compactor compactor = new Compactor(policy, mSegments, NOW);
+        compactor.measure();
+
+        File out = new File(mDir, "compacted");
+        Compactor.Result result = compactor.rewrite(0, out);
+        assertEquals(2, result.kept);
+        List<LogEntry> raw = readRecords(out);
+        // the first kept error holds the stack and the second refers to it
+        assertEquals(-1, raw.get(0).stackAt);
+        assertEquals(stack, raw.get(0).getDetails());
+        assertEquals(0, raw.get(1).stackAt);
+        List<LogEntry> entries = readSegment(out);
+        assertEquals(stack, entries.get(0).getDetails());
+        assertEquals(stack, entries.get(1).getDetails());
+        assertArrayEquals(result.index.get("illegalstateexception"), result.index.get("boom"));
+        assertEquals(2, result.index.get("boom").length);
+    }
+
+    @Test
+    public void missingIndexIsRebuilt() throws Exception {
+        FileLogger logger = newLogger(16 * 1024);
+        for (int i = 0; i < 200; i++) {
+            logger.log(i % 10 == 0 ? LogLevel.Error : LogLevel.Info, TAG, "entry " + i);
+        }
+        assertTrue(logger.sync(5000));
+        close(logger);
+        List<File> segments = LogStreams.listSegments(mLogFile);
+        assertFalse(segments.isEmpty());
+        // as left by a crash while a compacted copy replaced the segment
+        for (File segment : segments) {
+            LogIndex.fileFor(segment).delete();
+        }
+
+        logger = newLogger(16 * 1024);
+        List<LogEntry> all = logger.getLogEntries();
+        List<LogEntry> matches = logger.search("entry");
+        close(logger);
+
+        assertEquals(all.size(), matches.size());
+        assertTrue(LogIndex.fileFor(segments.get(0)).exists());
+    }
+
+    private static LogEntry entry(LogLevel level, String message, long ageDays) {
+        return new LogEntry(new Date(NOW - ageDays * RetentionPolicy.DAY), level, TAG, message);
+    }
+
+    private static long recordSize(LogEntry entry) {
+        JsonLineWriter writer = new JsonLineWriter().encode(entry, -1);
+        return RecordWriter.HEADER_LENGTH + writer.length();
+    }
+
+    /**
+     * Writes a segment and adds it to the snapshot
+     *
+     * @param entries the entries ordered oldest first
+     * @param stackAt the offset each entry's stack is stored at, or null to store them all in full
+     */
+    private void addSegment(LogEntry[] entries, long[] stackAt) throws IOException {
+        File file = new File(mDir, "log.txt." + (mSegments.size() + 1));
+        JsonLineWriter writer = new JsonLineWriter();
+        RecordWriter records = new RecordWriter();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < entries.length; i++) {
+                writer.encode(entries[i], stackAt != null ? stackAt[i] : -1);
+                records.write(out, writer.buffer(), writer.length() - 1);
+            }
+        } finally {
+            out.close();
+        }
+        mSegments.add(new LogSnapshot.Segment(file, new FileInputStream(file), file.length(), null));
+    }
+
+    /**
+     * Reads the records of a segment without resolving stack references
+     */
+    private static List<LogEntry> readRecords(File file) throws IOException {
+        List<LogEntry> entries = new ArrayList<>();
+        JsonLineReader reader = new JsonLineReader();
+        InputStream in = new FileInputStream(file);
+        try {
+            RecordReader records = new RecordReader(in, 0);
+            while (records.next()) {
+                entries.add(reader.parse(new String(records.payload(), 0, records.payloadLength(), "UTF-8")));
+            }
+            assertFalse(records.isCorrupt());
+        } finally {
+            in.close();
+        }
+        return entries;
+    }
+
+    private static List<LogEntry> readSegment(File file) throws IOException {
+        List<LogEntry> entries = new ArrayList<>();
+        JsonLineReader reader = new JsonLineReader();
+        Map<Long, String> stacks = new HashMap<>();
+        InputStream in = new FileInputStream(file);
+        try {
+            RecordReader records = new RecordReader(in, 0);
+            long offset = 0;
+            while (records.next()) {
+                LogEntry entry = reader.parse(new String(records.payload(), 0, records.payloadLength(), "UTF-8"));
+                FileLogger.resolveStack(entry, offset, stacks);
+                entries.add(entry);
+                offset = records.offset();
+            }
+        } finally {
+            in.close();
+        }
+        return entries;
+    }
+}
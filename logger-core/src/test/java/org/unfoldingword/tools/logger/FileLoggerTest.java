@@ -0,0 +1,200 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how entries are queued for the log file
+ */
+public class FileLoggerTest extends LoggerTestCase {
+
+    @Test
+    public void burstIsNotDropped() throws Exception {
+        FileLogger logger = newLogger(16 * 1024 * 1024);
+        long dropped = FileLogger.getDroppedEntries();
+        int count = 20000;
+        for (int i = 0; i < count; i++) {
+            logger.log(LogLevel.Info, TAG, "entry " + i);
+        }
+        assertTrue(logger.sync(30000));
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+
+        assertEquals(0, FileLogger.getDroppedEntries() - dropped);
+        assertEquals(count, entries.size());
+        assertEquals("entry " + (count - 1), entries.get(0).message);
+        assertEquals("entry 0", entries.get(count - 1).message);
+    }
+
+    @Test
+    public void entriesAreDroppedWhileTheFileIsUnavailable() throws Exception {
+        // the log file cannot be created inside a regular file
+        File blocker = new File(mDir, "blocker");
+        FileUtils.writeStringToFile(blocker, "");
+        FileLogger logger = new FileLogger(new File(blocker, "log.txt"), LogLevel.Info, FileLogger.DEFAULT_MAX_LOG_FILE_SIZE, null);
+        long dropped = FileLogger.getDroppedEntries();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 20000; i++) {
+            logger.log(LogLevel.Info, TAG, "entry " + i);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(logger.sync(5000));
+        close(logger);
+
+        assertTrue(FileLogger.getDroppedEntries() - dropped > 0);
+        // callers wait for the io thread at most once before it finds the file unavailable
+        assertTrue(elapsed < 10000);
+    }
+
+    @Test
+    public void entriesAreKeptUntilTheFileIsAvailable() throws Exception {
+        File blocker = new File(mDir, "blocker");
+        FileUtils.writeStringToFile(blocker, "");
+        FileLogger logger = new FileLogger(new File(blocker, "log.txt"), LogLevel.Info, FileLogger.DEFAULT_MAX_LOG_FILE_SIZE, null);
+        for (int i = 0; i < 10; i++) {
+            logger.log(LogLevel.Info, TAG, "entry " + i);
+        }
+        assertTrue(logger.sync(5000));
+        // the directory can now be created
+        blocker.delete();
+        logger.log(LogLevel.Info, TAG, "available");
+        assertTrue(logger.sync(5000));
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+
+        assertEquals(11, entries.size());
+        assertEquals("available", entries.get(0).message);
+        assertEquals("entry 0", entries.get(10).message);
+    }
+
+    @Test
+    public void mainThreadDoesNotWait() throws Exception {
+        FileLogger blocker = new FileLogger(new File(mDir, "blocker.txt"), LogLevel.Info, FileLogger.DEFAULT_MAX_LOG_FILE_SIZE, null);
+        FileLogger logger = newLogger();
+        long dropped = FileLogger.getDroppedEntries();
+        long elapsed;
+        FileLogger.setMainThread(Thread.currentThread());
+        try {
+            synchronized (blocker) {
+                // the io thread waits to write this until the monitor is released
+                blocker.log(LogLevel.Info, TAG, "hold");
+                long start = System.currentTimeMillis();
+                for (int i = 0; i < 6000; i++) {
+                    logger.log(LogLevel.Info, TAG, "entry " + i);
+                }
+                elapsed = System.currentTimeMillis() - start;
+            }
+        } finally {
+            FileLogger.setMainThread(null);
+        }
+        assertTrue(logger.sync(5000));
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+        close(blocker);
+
+        assertTrue(elapsed < 2000);
+        assertEquals(1000, FileLogger.getDroppedEntries() - dropped);
+        assertEquals("entry 5999", entries.get(0).message);
+    }
+
+    @Test
+    public void logFileWithoutParent() throws Exception {
+        File logFile = new File("logger-test-" + System.nanoTime() + ".log");
+        FileLogger logger = new FileLogger(logFile, LogLevel.Info, FileLogger.DEFAULT_MAX_LOG_FILE_SIZE, null);
+        try {
+            logger.log(LogLevel.Info, TAG, "hello");
+            assertTrue(logger.sync(5000));
+            List<LogEntry> entries = logger.getLogEntries();
+            assertEquals(1, entries.size());
+            assertEquals("hello", entries.get(0).message);
+        } finally {
+            close(logger);
+            File dir = logFile.getAbsoluteFile().getParentFile();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (f.getName().startsWith(logFile.getName())) {
+                        f.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void subscribersCannotChangeWrittenEntries() throws Exception {
+        FileLogger logger = newLogger();
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        LogSubscription subscription = logger.subscribe(null, new LogListener() {
+            @Override
+            public void onLogEntries(List<LogEntry> entries, int dropped) {
+                for (LogEntry entry : entries) {
+                    entry.setDetails("changed");
+                    entry.date.setTime(0);
+                }
+            }
+        }, direct);
+        logger.log(LogLevel.Error, TAG, "error", new IllegalStateException("boom"));
+        assertTrue(logger.sync(5000));
+        subscription.cancel();
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+
+        assertEquals(1, entries.size());
+        assertTrue(entries.get(0).getDetails().startsWith("java.lang.IllegalStateException: boom"));
+        assertTrue(entries.get(0).getTime() > 0);
+    }
+
+    @Test
+    public void sinkAndFileShareTheRenderedStack() throws Exception {
+        final String[] printed = new String[1];
+        LogSink sink = new LogSink() {
+            @Override
+            public int println(LogLevel level, String tag, String message, String stackTrace, LogField[] fields) {
+                printed[0] = stackTrace;
+                return 1;
+            }
+        };
+        FileLogger logger = new FileLogger(new File(mDir, "log.txt"), LogLevel.Info, FileLogger.DEFAULT_MAX_LOG_FILE_SIZE, sink);
+        logger.log(LogLevel.Error, TAG, "error", new IllegalStateException("boom"));
+        assertTrue(logger.sync(5000));
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+
+        assertTrue(printed[0].startsWith("java.lang.IllegalStateException: boom"));
+        assertEquals(printed[0], entries.get(0).getDetails());
+    }
+
+    @Test
+    public void flushDiscardsEntriesForwardedFromAReplacedLogger() throws Exception {
+        FileLogger blocker = new FileLogger(new File(mDir, "blocker.txt"), LogLevel.Info, FileLogger.DEFAULT_MAX_LOG_FILE_SIZE, null);
+        FileLogger replaced = newLogger();
+        FileLogger successor = newLogger();
+        synchronized (blocker) {
+            // the io thread waits to write this until the monitor is released
+            blocker.log(LogLevel.Info, TAG, "hold");
+            replaced.log(LogLevel.Info, TAG, "before");
+            replaced.replaceWith(successor);
+            successor.flush();
+            successor.log(LogLevel.Info, TAG, "after");
+        }
+        assertTrue(successor.sync(5000));
+        List<LogEntry> entries = successor.getLogEntries();
+        close(successor);
+        close(blocker);
+
+        assertEquals(1, entries.size());
+        assertEquals("after", entries.get(0).message);
+    }
+}
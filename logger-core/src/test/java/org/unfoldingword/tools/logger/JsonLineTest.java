@@ -0,0 +1,139 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that entries survive being written by {@link JsonLineWriter} and read by {@link JsonLineReader}
+ */
+public class JsonLineTest {
+
+    private static final String TAG = "JsonLineTest";
+
+    @Test
+    public void escapesRoundTrip() throws Exception {
+        String message = "quote \" backslash \\ slash / newline \n return \r tab \t bell \u0007 nul \u0000 end";
+        String details = "java.lang.IllegalStateException: \"boom\"\n\tat Foo.bar(Foo.java:1)\n";
+        LogEntry read = roundTrip(new LogEntry(new Date(1000), LogLevel.Error, TAG, message, details));
+
+        assertEquals(message, read.message);
+        assertEquals(details, read.getDetails());
+        assertEquals(TAG, read.classPath);
+        assertEquals(LogLevel.Error, read.level);
+        assertEquals(1000, read.getTime());
+    }
+
+    @Test
+    public void unicodeRoundTrip() throws Exception {
+        // two, three and four byte utf-8 sequences along with a line separator
+        String message = "caf\u00e9 \u4e16\u754c \ud83d\ude00 \u2028 \uffff";
+        LogEntry read = roundTrip(new LogEntry(new Date(1000), LogLevel.Info, "\u00fcber", message));
+
+        assertEquals(message, read.message);
+        assertEquals("\u00fcber", read.classPath);
+    }
+
+    @Test
+    public void fieldsRoundTrip() throws Exception {
+        LogEntry entry = new LogEntry(new Date(1000), LogLevel.Info, TAG, "fields", null,
+                LogField.kv("long", Long.MIN_VALUE),
+                LogField.kv("double", 1.5),
+                LogField.kv("nan", Double.NaN),
+                LogField.kv("yes", true),
+                LogField.kv("no", false),
+                LogField.kv("text", "a \"quoted\"\nline"),
+                LogField.kv("empty", ""),
+                LogField.kv("missing", (String) null),
+                LogField.kv("key with \"quotes\"", 1));
+        List<LogField> fields = roundTrip(entry).getFields();
+
+        assertEquals(9, fields.size());
+        assertEquals(LogField.Type.Long, fields.get(0).type);
+        assertEquals(Long.MIN_VALUE, fields.get(0).longValue());
+        assertEquals(LogField.Type.Double, fields.get(1).type);
+        assertEquals(1.5, fields.get(1).doubleValue(), 0);
+        // json has no NaN so it is kept as text
+        assertEquals("NaN", fields.get(2).stringValue());
+        assertEquals(LogField.Type.Boolean, fields.get(3).type);
+        assertTrue(fields.get(3).booleanValue());
+        assertFalse(fields.get(4).booleanValue());
+        assertEquals("a \"quoted\"\nline", fields.get(5).stringValue());
+        assertEquals("", fields.get(6).stringValue());
+        assertEquals(LogField.Type.String, fields.get(7).type);
+        assertNull(fields.get(7).stringValue());
+        assertEquals("key with \"quotes\"", fields.get(8).key);
+        assertEquals(1, fields.get(8).longValue());
+    }
+
+    @Test
+    public void nullsRoundTrip() throws Exception {
+        LogEntry read = roundTrip(new LogEntry(null, LogLevel.Warning, null, null, null));
+
+        assertEquals(LogLevel.Warning, read.level);
+        assertEquals(0, read.getTime());
+        assertNull(read.classPath);
+        assertNull(read.message);
+        assertNull(read.getDetails());
+        assertTrue(read.getFields().isEmpty());
+    }
+
+    @Test
+    public void metadataRoundTrip() throws Exception {
+        LogEntry entry = new LogEntry(new Date(1000), LogLevel.Error, TAG, "metadata", "details");
+        entry.sequence = 42;
+        entry.processId = 1234;
+        entry.threadId = 7;
+        entry.threadName = "worker \"1\"";
+        entry.stackFingerprint = 0x8f0c00000000abcdL;
+        LogEntry read = roundTrip(entry);
+
+        assertEquals(42, read.getSequence());
+        assertEquals(1234, read.getProcessId());
+        assertEquals(7, read.getThreadId());
+        assertEquals("worker \"1\"", read.threadName);
+        assertEquals(0x8f0c00000000abcdL, read.stackFingerprint);
+        assertEquals(-1, read.stackAt);
+    }
+
+    @Test
+    public void unknownKeysAreSkipped() throws Exception {
+        LogEntry read = new JsonLineReader().parse("{\"time\":1000,\"level\":\"I\",\"extra\":{\"a\":[1,\"}\",null]},\"tag\":\"t\",\"message\":\"m\"}");
+
+        assertEquals("t", read.classPath);
+        assertEquals("m", read.message);
+    }
+
+    @Test
+    public void damagedLinesAreRejected() throws Exception {
+        JsonLineReader reader = new JsonLineReader();
+        assertNull(reader.parse(""));
+        assertNull(reader.parse("{\"time\":1000,\"level\":\"I\",\"message\":\"cut"));
+        assertNull(reader.parse("{\"time\":1000,\"message\":\"no level\"}"));
+        assertNull(reader.parse("{\"time\":\"x\",\"level\":\"I\"}"));
+    }
+
+    /**
+     * Encodes an entry and parses it back
+     *
+     * @param entry
+     * @return the parsed entry
+     * @throws Exception
+     */
+    private static LogEntry roundTrip(LogEntry entry) throws Exception {
+        JsonLineWriter writer = new JsonLineWriter().encode(entry);
+        assertEquals('\n', writer.buffer()[writer.length() - 1]);
+        String line = new String(writer.buffer(), 0, writer.length() - 1, "UTF-8");
+        // the line must not be split by a newline in a value
+        assertEquals(-1, line.indexOf('\n'));
+        LogEntry read = new JsonLineReader().parse(line);
+        assertTrue("failed to parse " + line, read != null);
+        return read;
+    }
+}
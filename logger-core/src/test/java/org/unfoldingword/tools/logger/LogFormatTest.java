@@ -0,0 +1,42 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the plain text representation of entries
+ */
+public class LogFormatTest {
+
+    @Test
+    public void formattedEntriesCanBeParsed() throws Exception {
+        LogEntry entry = new LogEntry(new Date(), LogLevel.Warning, "LogFormatTest", "slow sync", "java.lang.IllegalStateException: slow\n", LogField.kv("ms", 1200));
+        LogFormat format = new LogFormat();
+        String text = format.format(entry);
+
+        String[] lines = text.split("\n");
+        assertEquals(2, lines.length);
+        LogEntry parsed = format.parseEntry(lines[0]);
+        assertEquals(LogLevel.Warning, parsed.level);
+        assertEquals("LogFormatTest", parsed.classPath);
+        assertEquals(" slow sync {ms=1200}", parsed.message);
+        assertEquals("java.lang.IllegalStateException: slow", lines[1]);
+    }
+
+    @Test
+    public void entriesAreFormattedInOrder() throws Exception {
+        List<LogEntry> entries = new ArrayList<>();
+        entries.add(new LogEntry(new Date(2000), LogLevel.Error, "LogFormatTest", "second"));
+        entries.add(new LogEntry(new Date(1000), LogLevel.Info, "LogFormatTest", "first"));
+        String text = LogFormat.format(entries);
+
+        assertTrue(text.indexOf("E/LogFormatTest: second\n") < text.indexOf("I/LogFormatTest: first\n"));
+        assertTrue(text.endsWith("first\n"));
+    }
+}
@@ -0,0 +1,67 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the token index and its file format
+ */
+public class LogIndexTest extends LoggerTestCase {
+
+    @Test
+    public void tokensAreLowerCaseWords() throws Exception {
+        List<String> tokens = new ArrayList<>();
+        LogIndex.tokenize("Sync-timeout: user_id=42, sync", tokens);
+        assertEquals(5, tokens.size());
+        assertEquals("sync", tokens.get(0));
+        assertEquals("timeout", tokens.get(1));
+        assertEquals("user_id", tokens.get(2));
+        assertEquals("42", tokens.get(3));
+        assertEquals("sync", tokens.get(4));
+    }
+
+    @Test
+    public void postingsRoundTrip() throws Exception {
+        LogIndex index = new LogIndex();
+        index.add(new LogEntry(new Date(), LogLevel.Info, TAG, "sync started"), 0);
+        index.add(new LogEntry(new Date(), LogLevel.Error, TAG, "sync failed", "java.io.IOException: timeout"), 130);
+        // offsets far apart take several bytes each
+        index.add(new LogEntry(new Date(), LogLevel.Info, TAG, "sync sync finished"), 5000000000L);
+        File file = new File(mDir, "log.txt.1.idx");
+        index.write(file);
+
+        LogIndex read = LogIndex.read(file);
+        assertArrayEquals(new long[]{0, 130, 5000000000L}, read.get("sync"));
+        assertArrayEquals(new long[]{130}, read.get("ioexception"));
+        assertArrayEquals(new long[]{0, 130, 5000000000L}, read.get("loggertest"));
+        assertArrayEquals(new long[]{5000000000L}, read.get("finished"));
+        assertArrayEquals(new long[0], read.get("missing"));
+    }
+
+    @Test
+    public void damagedIndexIsRejected() throws Exception {
+        File file = new File(mDir, "log.txt.1.idx");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write("not an index".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        try {
+            LogIndex.read(file);
+            fail("Expected an exception");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
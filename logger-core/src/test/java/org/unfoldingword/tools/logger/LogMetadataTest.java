@@ -0,0 +1,82 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the time, sequence number and origin stamped on entries
+ */
+public class LogMetadataTest {
+
+    @Test
+    public void smallStepsBackAreClamped() throws Exception {
+        long base = System.currentTimeMillis() + 24 * 60 * 60 * 1000L;
+        assertEquals(base, LogMetadata.clamp(base));
+        assertEquals(base, LogMetadata.clamp(base - LogMetadata.MAX_CLAMP_MILLIS));
+        assertEquals(base + 1, LogMetadata.clamp(base + 1));
+    }
+
+    @Test
+    public void largeCorrectionsAreRecorded() throws Exception {
+        long base = System.currentTimeMillis() + 2 * 24 * 60 * 60 * 1000L;
+        assertEquals(base, LogMetadata.clamp(base));
+        long corrected = base - 60 * 60 * 1000L;
+        assertEquals(corrected, LogMetadata.clamp(corrected));
+        // the corrected clock is followed from now on
+        assertEquals(corrected + 5, LogMetadata.clamp(corrected + 5));
+        // the time is back to normal after a correction rather than frozen
+        long now = System.currentTimeMillis();
+        long stamped = LogMetadata.currentTimeMillis();
+        assertTrue(stamped >= now && stamped - now < 60 * 1000L);
+    }
+
+    @Test
+    public void sequenceNumbersIncrease() throws Exception {
+        long first = LogMetadata.nextSequence();
+        long second = LogMetadata.nextSequence();
+        assertTrue(first > 0);
+        assertTrue(second > first);
+    }
+
+    @Test
+    public void threadInfoIsPerThread() throws Exception {
+        LogMetadata.ThreadInfo mine = LogMetadata.currentThread();
+        assertSame(mine, LogMetadata.currentThread());
+        assertEquals(Thread.currentThread().getId(), mine.id);
+        assertEquals(Thread.currentThread().getName(), mine.name);
+
+        final LogMetadata.ThreadInfo[] other = new LogMetadata.ThreadInfo[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                other[0] = LogMetadata.currentThread();
+            }
+        }, "metadata-test");
+        thread.start();
+        thread.join();
+        assertEquals("metadata-test", other[0].name);
+        assertEquals(thread.getId(), other[0].id);
+    }
+
+    @Test
+    public void processIdIsFound() throws Exception {
+        assertTrue(LogMetadata.getProcessId() > 0);
+    }
+
+    @Test
+    public void processNameCanBeSet() throws Exception {
+        String name = LogMetadata.getProcessName();
+        try {
+            LogMetadata.setProcessName("com.example:sync");
+            assertEquals("com.example:sync", LogMetadata.getProcessName());
+            LogMetadata.setProcessName("");
+            assertNull(LogMetadata.getProcessName());
+        } finally {
+            LogMetadata.setProcessName(name);
+        }
+    }
+}
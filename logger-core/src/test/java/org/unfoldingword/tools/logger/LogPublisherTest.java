@@ -0,0 +1,170 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how entries are queued and delivered to subscribers
+ */
+public class LogPublisherTest {
+
+    private static final String TAG = "LogPublisherTest";
+
+    @Test
+    public void coalesceKeepsTheNewestEntries() throws Exception {
+        LogPublisher publisher = new LogPublisher();
+        QueuedExecutor executor = new QueuedExecutor();
+        Collector collector = new Collector();
+        LogSubscription subscription = publisher.subscribe(null, collector, executor, 3, LogSubscription.Overflow.Coalesce);
+        for (int i = 1; i <= 5; i++) {
+            publisher.publish(newEntry(i));
+        }
+        executor.runAll();
+
+        assertEquals(1, collector.batches);
+        assertEquals(2, collector.dropped);
+        assertEquals(2, subscription.getDroppedCount());
+        assertEquals(3, collector.entries.size());
+        assertEquals("entry 3", collector.entries.get(0).message);
+        assertEquals("entry 5", collector.entries.get(2).message);
+    }
+
+    @Test
+    public void dropKeepsTheOldestEntries() throws Exception {
+        LogPublisher publisher = new LogPublisher();
+        QueuedExecutor executor = new QueuedExecutor();
+        Collector collector = new Collector();
+        LogSubscription subscription = publisher.subscribe(null, collector, executor, 3, LogSubscription.Overflow.Drop);
+        for (int i = 1; i <= 5; i++) {
+            publisher.publish(newEntry(i));
+        }
+        executor.runAll();
+
+        assertEquals(2, collector.dropped);
+        assertEquals(3, collector.entries.size());
+        assertEquals("entry 1", collector.entries.get(0).message);
+        assertEquals("entry 3", collector.entries.get(2).message);
+
+        // the count starts again after each delivery but the total is kept
+        for (int i = 6; i <= 10; i++) {
+            publisher.publish(newEntry(i));
+        }
+        executor.runAll();
+        assertEquals(2, collector.batches);
+        assertEquals(4, collector.dropped);
+        assertEquals(4, subscription.getDroppedCount());
+        assertEquals("entry 6", collector.entries.get(3).message);
+    }
+
+    @Test
+    public void entriesAreDeliveredInSequenceOrder() throws Exception {
+        LogPublisher publisher = new LogPublisher();
+        QueuedExecutor executor = new QueuedExecutor();
+        Collector collector = new Collector();
+        publisher.subscribe(null, collector, executor);
+        // published in a different order than they were stamped, as by two threads logging at once
+        publisher.publish(newEntry(2));
+        publisher.publish(newEntry(1));
+        publisher.publish(newEntry(4));
+        publisher.publish(newEntry(3));
+        executor.runAll();
+
+        assertEquals(4, collector.entries.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 1, collector.entries.get(i).getSequence());
+        }
+    }
+
+    @Test
+    public void filteredEntriesAreNotCopiedOrCounted() throws Exception {
+        LogPublisher publisher = new LogPublisher();
+        QueuedExecutor executor = new QueuedExecutor();
+        Collector collector = new Collector();
+        final List<LogEntry> seen = new ArrayList<>();
+        LogSubscription subscription = publisher.subscribe(new LogFilter() {
+            @Override
+            public boolean accept(LogEntry entry) {
+                seen.add(entry);
+                return entry.level == LogLevel.Error;
+            }
+        }, collector, executor, 1, LogSubscription.Overflow.Drop);
+        LogEntry error = newEntry(1, LogLevel.Error);
+        publisher.publish(newEntry(2));
+        publisher.publish(error);
+        executor.runAll();
+
+        assertEquals(2, seen.size());
+        assertEquals(0, subscription.getDroppedCount());
+        assertEquals(1, collector.entries.size());
+        // the subscriber gets its own copy
+        assertFalse(collector.entries.get(0) == error);
+        assertEquals(1, collector.entries.get(0).getSequence());
+    }
+
+    @Test
+    public void cancelledSubscriptionReceivesNothing() throws Exception {
+        LogPublisher publisher = new LogPublisher();
+        QueuedExecutor executor = new QueuedExecutor();
+        Collector collector = new Collector();
+        LogSubscription subscription = publisher.subscribe(null, collector, executor);
+        publisher.publish(newEntry(1));
+        subscription.cancel();
+        publisher.publish(newEntry(2));
+        executor.runAll();
+
+        assertTrue(subscription.isCancelled());
+        assertFalse(publisher.hasSubscribers());
+        assertEquals(0, collector.entries.size());
+    }
+
+    private static LogEntry newEntry(long sequence) {
+        return newEntry(sequence, LogLevel.Info);
+    }
+
+    private static LogEntry newEntry(long sequence, LogLevel level) {
+        LogEntry entry = new LogEntry(new Date(sequence), level, TAG, "entry " + sequence);
+        entry.sequence = sequence;
+        return entry;
+    }
+
+    /**
+     * Holds deliveries until they are run, like a subscriber that has fallen behind
+     */
+    private static class QueuedExecutor implements Executor {
+        private final List<Runnable> mQueued = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            mQueued.add(command);
+        }
+
+        synchronized void runAll() {
+            List<Runnable> queued = new ArrayList<>(mQueued);
+            mQueued.clear();
+            for (Runnable r : queued) {
+                r.run();
+            }
+        }
+    }
+
+    private static class Collector implements LogListener {
+        final List<LogEntry> entries = new ArrayList<>();
+        int dropped = 0;
+        int batches = 0;
+
+        @Override
+        public void onLogEntries(List<LogEntry> entries, int dropped) {
+            this.entries.addAll(entries);
+            this.dropped += dropped;
+            batches++;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how queries are parsed and matched against the index
+ */
+public class LogQueryTest extends LoggerTestCase {
+
+    private static final String[] MESSAGES = {
+            "sync timeout",                 // 0
+            "sync finished",                // 1
+            "connection reset by peer",     // 2
+            "reset connection",             // 3
+            "timeout while retrying sync",  // 4
+            "Connection Reset"              // 5
+    };
+    private LogIndex mIndex;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mIndex = new LogIndex();
+        for (int i = 0; i < MESSAGES.length; i++) {
+            mIndex.add(entry(MESSAGES[i]), i);
+        }
+    }
+
+    @Test
+    public void termsAreAnded() throws Exception {
+        assertMatches("sync timeout", 0, 4);
+        assertMatches("sync AND timeout", 0, 4);
+        assertMatches("SYNC", 0, 1, 4);
+    }
+
+    @Test
+    public void orSeparatesGroups() throws Exception {
+        assertMatches("finished OR peer", 1, 2);
+        // AND binds tighter than OR
+        assertMatches("sync timeout OR peer", 0, 2, 4);
+    }
+
+    @Test
+    public void termsCanBeExcluded() throws Exception {
+        assertMatches("sync NOT retrying", 0, 1);
+        assertMatches("sync -retrying", 0, 1);
+        assertMatches("sync -timeout OR peer", 1, 2);
+    }
+
+    @Test
+    public void exclusionsAloneMatchNothing() throws Exception {
+        assertTrue(LogQuery.parse("NOT sync").isEmpty());
+        assertTrue(LogQuery.parse("-sync").isEmpty());
+        assertTrue(LogQuery.parse("").isEmpty());
+        assertTrue(LogQuery.parse("\"\" - OR").isEmpty());
+    }
+
+    @Test
+    public void phrasesAreAdjacent() throws Exception {
+        LogQuery q = LogQuery.parse("\"connection reset\"");
+        assertTrue(q.hasPhrases());
+        // the index narrows a phrase down to the entries holding its words
+        assertArrayEquals(new long[]{2, 3, 5}, q.match(mIndex));
+        assertTrue(q.accept(entry(MESSAGES[2])));
+        assertFalse(q.accept(entry(MESSAGES[3])));
+        assertTrue(q.accept(entry(MESSAGES[5])));
+        // the words must be in the same field
+        assertFalse(q.accept(new LogEntry(new Date(), LogLevel.Info, "connection", "reset")));
+    }
+
+    @Test
+    public void excludedPhrasesAreAdjacent() throws Exception {
+        LogQuery q = LogQuery.parse("connection -\"reset by\"");
+        assertArrayEquals(new long[]{2, 3, 5}, q.match(mIndex));
+        assertFalse(q.accept(entry(MESSAGES[2])));
+        assertTrue(q.accept(entry(MESSAGES[3])));
+        assertFalse(LogQuery.parse("sync timeout").hasPhrases());
+    }
+
+    @Test
+    public void searchMatchesPhrases() throws Exception {
+        FileLogger logger = newLogger();
+        for (String message : MESSAGES) {
+            logger.log(LogLevel.Info, TAG, message);
+        }
+        assertTrue(logger.sync(5000));
+        List<LogEntry> entries = logger.search("\"connection reset\"");
+        close(logger);
+
+        assertEquals(2, entries.size());
+        assertEquals(MESSAGES[5], entries.get(0).message);
+        assertEquals(MESSAGES[2], entries.get(1).message);
+    }
+
+    private void assertMatches(String query, long... offsets) {
+        LogQuery q = LogQuery.parse(query);
+        assertArrayEquals(offsets, q.match(mIndex));
+        assertFalse(q.hasPhrases());
+    }
+
+    private static LogEntry entry(String message) {
+        return new LogEntry(new Date(), LogLevel.Info, TAG, message);
+    }
+}
@@ -0,0 +1,91 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a snapshot keeps reading the segments it was taken from while the log changes
+ */
+public class LogSnapshotTest extends LoggerTestCase {
+
+    @Test
+    public void snapshotIsStableAcrossRolls() throws Exception {
+        FileLogger logger = newLogger(16 * 1024);
+        for (int i = 0; i < 60; i++) {
+            logger.log(LogLevel.Info, TAG, "before snapshot " + i);
+        }
+        LogSnapshot snapshot = logger.snapshot(false);
+        try {
+            List<String> before = readMessages(snapshot);
+            assertTrue(snapshot.getSegments().size() > 1);
+            assertEquals("before snapshot 0", before.get(0));
+            assertEquals("before snapshot 59", before.get(before.size() - 1));
+
+            // roll the log far enough to evict every segment in the snapshot
+            for (int i = 0; i < 600; i++) {
+                logger.log(LogLevel.Info, TAG, "after snapshot " + i);
+            }
+            assertTrue(logger.sync(5000));
+            assertFalse(snapshot.getSegments().get(0).file.exists());
+
+            assertEquals(before, readMessages(snapshot));
+        } finally {
+            snapshot.close();
+        }
+        close(logger);
+    }
+
+    @Test
+    public void snapshotIsStableAcrossCompaction() throws Exception {
+        FileLogger logger = newLogger(16 * 1024);
+        for (int i = 0; i < 60; i++) {
+            logger.log(i % 2 == 0 ? LogLevel.Info : LogLevel.Warning, TAG, "before snapshot " + i);
+        }
+        LogSnapshot snapshot = logger.snapshot(false);
+        try {
+            List<String> before = readMessages(snapshot);
+            LogSnapshot.Segment sealed = snapshot.getSegments().get(0);
+            assertFalse(sealed.file.equals(mLogFile));
+
+            // drop every info entry from the sealed segments
+            logger.setRetentionPolicy(new RetentionPolicy().keep(LogLevel.Info, RetentionPolicy.UNLIMITED, 0));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sealed.file.length() == sealed.length && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(sealed.file.length() < sealed.length);
+
+            assertEquals(before, readMessages(snapshot));
+        } finally {
+            snapshot.close();
+        }
+        close(logger);
+    }
+
+    /**
+     * Reads the messages in every segment of a snapshot from the start
+     *
+     * @param snapshot
+     * @return the messages oldest first
+     * @throws Exception
+     */
+    private static List<String> readMessages(LogSnapshot snapshot) throws Exception {
+        List<String> messages = new ArrayList<>();
+        JsonLineReader reader = new JsonLineReader();
+        for (LogSnapshot.Segment segment : snapshot.getSegments()) {
+            segment.in.getChannel().position(0);
+            RecordReader records = LogSnapshot.openRecords(segment);
+            while (records.next()) {
+                messages.add(reader.parse(new String(records.payload(), 0, records.payloadLength(), "UTF-8")).message);
+            }
+            assertFalse(records.isCorrupt());
+        }
+        return messages;
+    }
+}
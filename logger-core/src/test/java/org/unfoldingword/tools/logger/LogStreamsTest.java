@@ -0,0 +1,113 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how the streams written by other processes are read and flushed
+ */
+public class LogStreamsTest extends LoggerTestCase {
+
+    private File mOther;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mOther = LogStreams.streamFor(mLogFile, "com.example:sync");
+    }
+
+    @Test
+    public void markerRoundTrip() throws Exception {
+        FlushMarker marker = new FlushMarker(1234);
+        marker.put(mOther, 3, 100);
+        marker.write(mLogFile);
+
+        FlushMarker read = FlushMarker.read(mLogFile);
+        assertEquals(1234, read.getTime());
+        assertEquals(Long.MAX_VALUE, read.visibleFrom(mOther, 2));
+        assertEquals(100, read.visibleFrom(mOther, 3));
+        assertEquals(0, read.visibleFrom(mOther, 4));
+        assertEquals(4, read.firstUnflushedSegment(mOther));
+        assertEquals(0, read.visibleFrom(mLogFile, 0));
+    }
+
+    @Test
+    public void damagedMarkerIsIgnored() throws Exception {
+        FlushMarker marker = new FlushMarker(1234);
+        marker.put(mOther, 3, 100);
+        marker.write(mLogFile);
+        // flip a bit in the flush time
+        RandomAccessFile raf = new RandomAccessFile(FlushMarker.fileFor(mLogFile), "rw");
+        try {
+            raf.seek(12);
+            int b = raf.read();
+            raf.seek(12);
+            raf.write(b ^ 1);
+        } finally {
+            raf.close();
+        }
+
+        FlushMarker read = FlushMarker.read(mLogFile);
+        assertEquals(0, read.getTime());
+        assertEquals(0, read.visibleFrom(mOther, 3));
+    }
+
+    @Test
+    public void otherProcessEntriesAreHiddenByPosition() throws Exception {
+        append(mOther, new LogEntry(new Date(), LogLevel.Info, TAG, "before flush"));
+        LogStreams.writeActiveSegment(mOther, 0);
+        FileLogger logger = newLogger();
+        logger.flush();
+        assertTrue(logger.sync(5000));
+        // the other process logs after the clock was set back
+        append(mOther, new LogEntry(new Date(1000), LogLevel.Info, TAG, "after flush"));
+        List<LogEntry> entries = logger.getLogEntries();
+        List<LogEntry> found = logger.search("flush");
+        close(logger);
+
+        assertEquals(1, entries.size());
+        assertEquals("after flush", entries.get(0).message);
+        assertEquals(1, found.size());
+        assertEquals("after flush", found.get(0).message);
+    }
+
+    @Test
+    public void otherProcessIndexesFollowAppends() throws Exception {
+        append(mOther, new LogEntry(new Date(1000), LogLevel.Info, TAG, "first record"));
+        FileLogger logger = newLogger();
+        assertEquals(1, logger.search("record").size());
+        append(mOther, new LogEntry(new Date(2000), LogLevel.Info, TAG, "second record"));
+        List<LogEntry> found = logger.search("record");
+        close(logger);
+
+        assertEquals(2, found.size());
+        assertEquals("second record", found.get(0).message);
+        assertEquals("first record", found.get(1).message);
+    }
+
+    @Test
+    public void ownEntriesLoggedAfterAFlushAreKept() throws Exception {
+        FileLogger logger = newLogger();
+        logger.log(LogLevel.Info, TAG, "before");
+        assertTrue(logger.sync(5000));
+        logger.flush();
+        logger.log(LogLevel.Info, TAG, "after");
+        assertTrue(logger.sync(5000));
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+
+        assertEquals(1, entries.size());
+        assertEquals("after", entries.get(0).message);
+        assertFalse(FlushMarker.read(mLogFile).getTime() == 0);
+    }
+}
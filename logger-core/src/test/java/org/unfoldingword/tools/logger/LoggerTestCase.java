@@ -0,0 +1,82 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Gives each test an empty temporary directory holding its log file.
+ * Subclasses that override setUp or tearDown must call the inherited method.
+ */
+public abstract class LoggerTestCase {
+
+    protected static final String TAG = "LoggerTest";
+    protected File mDir;
+    protected File mLogFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("logger-test", "");
+        mDir.delete();
+        mDir.mkdirs();
+        mLogFile = new File(mDir, "log.txt");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteRecursive(mDir);
+    }
+
+    /**
+     * Creates a logger for the log file that keeps up to the default size
+     *
+     * @return
+     */
+    protected FileLogger newLogger() {
+        return newLogger(FileLogger.DEFAULT_MAX_LOG_FILE_SIZE);
+    }
+
+    /**
+     * Creates a logger for the log file
+     *
+     * @param maxLogFileSize the maximum size of the log
+     * @return
+     */
+    protected FileLogger newLogger(long maxLogFileSize) {
+        return new FileLogger(mLogFile, LogLevel.Info, maxLogFileSize, null);
+    }
+
+    /**
+     * Closes a logger and waits for the file to be closed on the io thread
+     *
+     * @param logger
+     */
+    protected static void close(FileLogger logger) {
+        logger.close();
+        // the file is closed after everything queued before it
+        assertTrue(logger.sync(5000));
+    }
+
+    /**
+     * Appends an entry to a stream the way another process would
+     *
+     * @param stream the file the stream appends to
+     * @param entry  the entry
+     * @throws IOException
+     */
+    protected static void append(File stream, LogEntry entry) throws IOException {
+        JsonLineWriter writer = new JsonLineWriter().encode(entry);
+        OutputStream out = new FileOutputStream(stream, true);
+        try {
+            new RecordWriter().write(out, writer.buffer(), writer.length() - 1);
+        } finally {
+            out.close();
+        }
+    }
+}
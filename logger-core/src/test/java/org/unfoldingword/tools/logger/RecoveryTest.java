@@ -0,0 +1,345 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks record framing and the recovery of log files left behind by a crash or an older version
+ */
+public class RecoveryTest extends LoggerTestCase {
+
+    @Test
+    public void framedRecordsRoundTrip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RecordWriter writer = new RecordWriter();
+        byte[] first = "{\"message\":\"one\"}".getBytes("UTF-8");
+        byte[] second = "{\"message\":\"two\"}".getBytes("UTF-8");
+        int length = writer.write(out, first, first.length);
+        writer.write(out, second, second.length);
+
+        RecordReader reader = new RecordReader(new ByteArrayInputStream(out.toByteArray()), 0);
+        assertTrue(reader.next());
+        assertEquals("{\"message\":\"one\"}", new String(reader.payload(), 0, reader.payloadLength(), "UTF-8"));
+        assertEquals(length, reader.offset());
+        assertTrue(reader.next());
+        assertFalse(reader.next());
+        assertFalse(reader.isCorrupt());
+    }
+
+    @Test
+    public void damagedRecordStopsReading() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RecordWriter writer = new RecordWriter();
+        byte[] payload = "{\"message\":\"one\"}".getBytes("UTF-8");
+        int length = writer.write(out, payload, payload.length);
+        writer.write(out, payload, payload.length);
+        byte[] bytes = out.toByteArray();
+        // flip a bit in the payload of the second record
+        bytes[length + RecordWriter.HEADER_LENGTH + 3] ^= 1;
+
+        RecordReader reader = new RecordReader(new ByteArrayInputStream(bytes), 0);
+        assertTrue(reader.next());
+        assertFalse(reader.next());
+        assertTrue(reader.isCorrupt());
+        assertEquals(length, reader.offset());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedRecordIsRejected() throws Exception {
+        byte[] payload = new byte[RecordWriter.MAX_RECORD_LENGTH + 1];
+        new RecordWriter().write(new ByteArrayOutputStream(), payload, payload.length);
+    }
+
+    @Test
+    public void longMessageIsCutShort() throws Exception {
+        char[] chars = new char[JsonLineWriter.MAX_STRING_LENGTH * 2];
+        Arrays.fill(chars, 'x');
+        FileLogger logger = newLogger(16 * 1024 * 1024);
+        logger.log(LogLevel.Info, TAG, new String(chars));
+        logger.log(LogLevel.Info, TAG, "after");
+        assertTrue(logger.sync(5000));
+        close(logger);
+
+        logger = newLogger(16 * 1024 * 1024);
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+        assertEquals(2, entries.size());
+        assertEquals("after", entries.get(0).message);
+        assertEquals(JsonLineWriter.MAX_STRING_LENGTH + 3, entries.get(1).message.length());
+        assertTrue(entries.get(1).message.endsWith("x..."));
+        assertIntact(mLogFile);
+    }
+
+    @Test
+    public void oversizedEntryIsDroppedWithoutLosingLaterEntries() throws Exception {
+        // control characters take 6 bytes each once escaped
+        char[] chars = new char[JsonLineWriter.MAX_STRING_LENGTH];
+        Arrays.fill(chars, '\u0001');
+        String value = new String(chars);
+        long dropped = FileLogger.getDroppedEntries();
+        FileLogger logger = newLogger();
+        logger.log(LogLevel.Info, TAG, "before");
+        logger.log(LogLevel.Info, TAG, value, null, LogField.kv("a", value), LogField.kv("b", value));
+        logger.log(LogLevel.Info, TAG, "after");
+        assertTrue(logger.sync(5000));
+        close(logger);
+
+        logger = newLogger();
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+        assertEquals(1, FileLogger.getDroppedEntries() - dropped);
+        assertEquals(2, entries.size());
+        assertEquals("after", entries.get(0).message);
+        assertEquals("before", entries.get(1).message);
+        assertIntact(mLogFile);
+    }
+
+    @Test
+    public void tornTailIsTruncatedOnOpen() throws Exception {
+        writeEntries(10);
+        truncate(mLogFile, mLogFile.length() - 5);
+
+        FileLogger logger = newLogger();
+        logger.log(LogLevel.Info, TAG, "after");
+        assertTrue(logger.sync(5000));
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+
+        assertEquals(10, entries.size());
+        assertEquals("after", entries.get(0).message);
+        assertEquals("entry 8", entries.get(1).message);
+        assertEquals("entry 0", entries.get(9).message);
+        assertIntact(mLogFile);
+    }
+
+    @Test
+    public void staleCheckpointFallsBackToFullScan() throws Exception {
+        writeEntries(5);
+        long length = mLogFile.length();
+        // a checkpoint past the end of the file, as left by a log that was replaced
+        Checkpoint.write(mLogFile, length + 100);
+        truncate(mLogFile, length - 3);
+
+        FileLogger logger = newLogger();
+        logger.open();
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+
+        assertEquals(4, entries.size());
+        assertEquals("entry 3", entries.get(0).message);
+        assertTrue(Checkpoint.read(mLogFile) < length);
+    }
+
+    @Test
+    public void checkpointInsideRecordFallsBackToFullScan() throws Exception {
+        writeEntries(5);
+        long length = mLogFile.length();
+        Checkpoint.write(mLogFile, 7);
+        truncate(mLogFile, length - 3);
+
+        FileLogger logger = newLogger();
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+
+        assertEquals(4, entries.size());
+    }
+
+    @Test
+    public void corruptCheckpointIsIgnored() throws Exception {
+        writeEntries(5);
+        long length = mLogFile.length();
+        OutputStream out = new FileOutputStream(Checkpoint.fileFor(mLogFile));
+        try {
+            out.write("not a checkpoint at all!".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        assertEquals(0, Checkpoint.read(mLogFile));
+        truncate(mLogFile, length - 3);
+
+        FileLogger logger = newLogger();
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+
+        assertEquals(4, entries.size());
+    }
+
+    @Test
+    public void reopenResumesFromTheSavedIndex() throws Exception {
+        IllegalStateException failure = new IllegalStateException("boom");
+        FileLogger logger = newLogger();
+        logger.log(LogLevel.Error, TAG, "first failure", failure);
+        logger.log(LogLevel.Info, TAG, "entry before close");
+        close(logger);
+        long length = mLogFile.length();
+        Checkpoint.Saved saved = Checkpoint.readIndex(mLogFile, 1);
+        assertTrue(saved != null);
+        assertEquals(length, saved.offset);
+
+        logger = newLogger();
+        logger.log(LogLevel.Error, TAG, "second failure", failure);
+        assertTrue(logger.sync(5000));
+        List<LogEntry> found = logger.search("failure");
+        List<LogEntry> before = logger.search("before");
+        close(logger);
+
+        assertEquals(2, found.size());
+        // the repeated trace refers to the record written before the file was reopened
+        assertEquals(found.get(1).getDetails(), found.get(0).getDetails());
+        assertTrue(found.get(0).getDetails().contains("boom"));
+        assertEquals(1, before.size());
+    }
+
+    @Test
+    public void recordsBeforeTheSavedIndexAreNotScanned() throws Exception {
+        writeEntries(5);
+        // an empty index covering the whole file is trusted
+        Checkpoint.writeIndex(mLogFile, 1, mLogFile.length(), new LogIndex(), new StackOffsets());
+
+        FileLogger logger = newLogger();
+        logger.log(LogLevel.Info, TAG, "entry after");
+        assertTrue(logger.sync(5000));
+        List<LogEntry> found = logger.search("entry");
+        close(logger);
+
+        assertEquals(1, found.size());
+        assertEquals("entry after", found.get(0).message);
+    }
+
+    @Test
+    public void savedIndexPastTheEndIsIgnored() throws Exception {
+        writeEntries(5);
+        Checkpoint.writeIndex(mLogFile, 1, mLogFile.length() + 100, new LogIndex(), new StackOffsets());
+
+        FileLogger logger = newLogger();
+        List<LogEntry> found = logger.search("entry");
+        close(logger);
+
+        assertEquals(5, found.size());
+    }
+
+    @Test
+    public void legacyTextLogIsMigrated() throws Exception {
+        // the text format written before entries were stored as records, newest first
+        String legacy = "1/5/16 3:04 PM E/" + TAG + ": boom\r\n"
+                + "java.lang.IllegalStateException: boom\r\n"
+                + "1/5/16 3:03 PM I/" + TAG + ": hello\r\n";
+        writeFile(mLogFile, legacy.getBytes("UTF-8"));
+
+        FileLogger logger = newLogger();
+        logger.log(LogLevel.Warning, TAG, "after");
+        assertTrue(logger.sync(5000));
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+
+        assertEquals(3, entries.size());
+        assertEquals("after", entries.get(0).message);
+        assertEquals(" boom", entries.get(1).message);
+        assertEquals(LogLevel.Error, entries.get(1).level);
+        assertEquals("java.lang.IllegalStateException: boom", entries.get(1).getDetails());
+        assertEquals(" hello", entries.get(2).message);
+        assertEquals(LogLevel.Info, entries.get(2).level);
+        assertTrue(isFramed(mLogFile));
+    }
+
+    @Test
+    public void legacyJsonLinesAreMigrated() throws Exception {
+        // json lines written before records were framed, oldest first
+        JsonLineWriter writer = new JsonLineWriter();
+        OutputStream out = new FileOutputStream(mLogFile);
+        try {
+            writer.encode(new LogEntry(new Date(1000), LogLevel.Info, TAG, "first")).writeTo(out);
+            writer.encode(new LogEntry(new Date(2000), LogLevel.Error, TAG, "second", "details")).writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        FileLogger logger = newLogger();
+        List<LogEntry> entries = logger.getLogEntries();
+        close(logger);
+
+        assertEquals(2, entries.size());
+        assertEquals("second", entries.get(0).message);
+        assertEquals("details", entries.get(0).getDetails());
+        assertEquals("first", entries.get(1).message);
+        assertTrue(isFramed(mLogFile));
+    }
+
+    /**
+     * Logs entries and closes the log file
+     *
+     * @param count the number of entries
+     */
+    private void writeEntries(int count) {
+        FileLogger logger = newLogger();
+        for (int i = 0; i < count; i++) {
+            logger.log(LogLevel.Info, TAG, "entry " + i);
+        }
+        assertTrue(logger.sync(5000));
+        close(logger);
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Checks that a file holds nothing but complete records
+     *
+     * @param file
+     * @throws IOException
+     */
+    private static void assertIntact(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            RecordReader reader = new RecordReader(in, 0);
+            while (reader.next()) {
+                // verifying
+            }
+            assertFalse(reader.isCorrupt());
+            assertEquals(file.length(), reader.offset());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean isFramed(File file) throws IOException {
+        byte[] header = new byte[RecordWriter.HEADER_LENGTH];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return RecordReader.isRecordHeader(header, raf.read(header));
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks stack trace rendering and how repeated traces are stored
+ */
+public class ThrowableRendererTest extends LoggerTestCase {
+
+    // "Aa" and "BB" have the same String hash code
+    private static final String[] COLLIDING = {"user Aa not found", "user BB not found"};
+
+    @Test
+    public void identicalTracesShareARendering() throws Exception {
+        Throwable[] errors = sameStack("boom", "boom");
+        ThrowableRenderer.Rendered first = ThrowableRenderer.render(errors[0]);
+        ThrowableRenderer.Rendered second = ThrowableRenderer.render(errors[1]);
+        assertEquals(first.fingerprint, second.fingerprint);
+        assertSame(first.text, second.text);
+    }
+
+    @Test
+    public void collidingTracesAreRenderedSeparately() throws Exception {
+        Throwable[] errors = sameStack(COLLIDING);
+        ThrowableRenderer.Rendered first = ThrowableRenderer.render(errors[0]);
+        ThrowableRenderer.Rendered second = ThrowableRenderer.render(errors[1]);
+        assertEquals(first.fingerprint, second.fingerprint);
+        assertTrue(first.text.startsWith("java.lang.IllegalStateException: " + COLLIDING[0]));
+        assertTrue(second.text.startsWith("java.lang.IllegalStateException: " + COLLIDING[1]));
+    }
+
+    @Test
+    public void collidingTracesAreStoredSeparately() throws Exception {
+        FileLogger logger = newLogger();
+        Throwable[] errors = sameStack(COLLIDING[0], COLLIDING[1], COLLIDING[0]);
+        for (Throwable error : errors) {
+            logger.log(LogLevel.Error, TAG, "failed", error);
+        }
+        assertTrue(logger.sync(5000));
+        List<LogEntry> entries = logger.getLogEntries();
+        List<LogEntry> matches = logger.search("BB");
+        close(logger);
+
+        assertEquals(3, entries.size());
+        assertTrue(entries.get(0).getDetails().startsWith("java.lang.IllegalStateException: " + COLLIDING[0]));
+        assertTrue(entries.get(1).getDetails().startsWith("java.lang.IllegalStateException: " + COLLIDING[1]));
+        assertTrue(entries.get(2).getDetails().startsWith("java.lang.IllegalStateException: " + COLLIDING[0]));
+        assertEquals(1, matches.size());
+    }
+
+    /**
+     * Creates exceptions with identical stack traces
+     */
+    private static Throwable[] sameStack(String... messages) {
+        Throwable[] errors = new Throwable[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            errors[i] = new IllegalStateException(messages[i]);
+        }
+        return errors;
+    }
+}
@@ -0,0 +1,26 @@
+package org.unfoldingword.tools.logger;
+
+import android.util.Log;
+
+/**
+ * Sends log messages to LogCat.
+ * Stack traces arrive already rendered by {@link ThrowableRenderer} so the rendering is shared with the log file.
+ */
+class AndroidLogSink implements LogSink {
+
+    @Override
+    public int println(LogLevel level, String tag, String message, String stackTrace, LogField[] fields) {
+        message = LogFormat.appendFields(message, fields);
+        if (stackTrace != null) {
+            message = message + '\n' + stackTrace;
+        }
+        switch (level) {
+            case Error:
+                return Log.println(Log.ERROR, tag, message);
+            case Warning:
+                return Log.println(Log.WARN, tag, message);
+            default:
+                return Log.println(Log.INFO, tag, message);
+        }
+    }
+}
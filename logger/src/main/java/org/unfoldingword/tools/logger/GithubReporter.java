@@ -16,6 +16,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
 
 /**
  * This class submits information to a github repository
@@ -75,15 +76,7 @@ public class GithubReporter {
      * @return the request object
      */
     public Request reportCrash(String notes, File stacktraceFile, File logFile) throws IOException {
-        String log = null;
-        if(logFile.exists()) {
-            try {
-                log = FileUtils.readFileToString(logFile);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-
+        String log = readLog(logFile);
         String stacktrace = FileUtils.readFileToString(stacktraceFile);
         return reportCrash(notes, stacktrace, log);
     }
@@ -123,15 +116,35 @@ public class GithubReporter {
      * @return the request object
      */
     public Request reportBug(String notes, File logFile) throws IOException {
-        String log = null;
-        if(logFile != null && logFile.exists()) {
+        return reportBug(notes, readLog(logFile));
+    }
+
+    /**
+     * Reads the entries of every segment and process of a log as plain text.
+     * The log file itself holds framed records and only the newest segment so it cannot be sent as is.
+     * @param logFile the log file
+     * @return the entries newest first or null if there are none
+     */
+    private static String readLog(File logFile) {
+        if (logFile == null) {
+            return null;
+        }
+        List<LogEntry> entries;
+        if (logFile.equals(Logger.getLogFile())) {
+            entries = Logger.getLogEntries();
+        } else {
+            FileLogger logger = new FileLogger(logFile, LogLevel.Info, FileLogger.DEFAULT_MAX_LOG_FILE_SIZE, null);
             try {
-                log = FileUtils.readFileToString(logFile);
+                logger.open();
+                entries = logger.getLogEntries();
             } catch (IOException e) {
                 e.printStackTrace();
+                return null;
+            } finally {
+                logger.close();
             }
         }
-        return reportBug(notes, log);
+        return entries.isEmpty() ? null : LogFormat.format(entries);
     }
 
     /**
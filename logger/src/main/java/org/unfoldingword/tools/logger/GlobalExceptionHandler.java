@@ -83,6 +83,9 @@ class GlobalExceptionHandler implements Thread.UncaughtExceptionHandler {
             writeToFile(stacktrace, filename);
         }
 
+        // persist log entries that are still buffered in memory
+        Logger.sync(1000);
+
         defaultUEH.uncaughtException(t, e);
 
         if(killOnException) {
@@ -1,72 +1,46 @@
 package org.unfoldingword.tools.logger;
 
-import android.util.Log;
+import android.os.Looper;
+import android.os.Process;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.channels.FileChannel;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Executor;
 
 /**
  * Logs messages using the android Log class and also records logs to a file if configured.
  * Requires permission WRITE_EXTERNAL_STORAGE in AndroidManifest.xml.
+ * The storage and query engine lives in {@link FileLogger}, this class adapts it to android.
  */
 public class Logger {
 
     /**
      * The pattern to match the leading log line
      */
-    public final static String PATTERN = "(\\d+\\/\\d+\\/\\d+\\s+\\d+:\\d+\\s+[A|P]M)\\s+([A-Z|])\\/(((?!:).)*):(.*)";
-    private final File mLogFile;
-    private final LogLevel mMinLoggingLevel;
-    private final long mMaxLogFileSize;
-    private static Logger sInstance;
-    private static final long DEFAULT_MAX_LOG_FILE_SIZE = 1024 * 200;
-    private File stacktraceDir = null;
+    public final static String PATTERN = LogFormat.PATTERN;
+    private static final LogSink sSink = new AndroidLogSink();
+    private static final LogPublisher sPublisher = new LogPublisher();
+    private static Executor sMainThreadExecutor = null;
+    // read without locking by every log call
+    private static volatile FileLogger sInstance;
+    private static File sStacktraceDir = null;
 
     static {
-        sInstance = new Logger(null, LogLevel.Info);
-    }
-
-    /**
-     * @param logFile
-     * @param minLogingLevel
-     */
-    private Logger(File logFile, LogLevel minLogingLevel) {
-        mLogFile = logFile;
-        if (minLogingLevel == null) {
-            mMinLoggingLevel = LogLevel.Info;
-        } else {
-            mMinLoggingLevel = minLogingLevel;
+        // avoids reading /proc on the first logging thread
+        LogMetadata.setProcessId(Process.myPid());
+        try {
+            // logging on the main thread must never wait for the disk
+            FileLogger.setMainThread(Looper.getMainLooper().getThread());
+        } catch (RuntimeException e) {
+            // not running on android
         }
-        mMaxLogFileSize = DEFAULT_MAX_LOG_FILE_SIZE;
+        sInstance = new FileLogger(null, LogLevel.Info, FileLogger.DEFAULT_MAX_LOG_FILE_SIZE, sSink, sPublisher);
     }
 
-    /**
-     * @param logFile
-     * @param minLogingLevel
-     * @param maxLogFileSize
-     */
-    private Logger(File logFile, LogLevel minLogingLevel, long maxLogFileSize) {
-        mLogFile = logFile;
-        if (minLogingLevel == null) {
-            mMinLoggingLevel = LogLevel.Info;
-        } else {
-            mMinLoggingLevel = minLogingLevel;
-        }
-        mMaxLogFileSize = maxLogFileSize;
+    private Logger() {
     }
 
     /**
@@ -86,7 +60,7 @@ public class Logger {
      */
     public static void registerGlobalExceptionHandler(File stacktraceDir, boolean autoKill) {
         if(!(Thread.getDefaultUncaughtExceptionHandler() instanceof GlobalExceptionHandler)) {
-            sInstance.stacktraceDir = stacktraceDir;
+            sStacktraceDir = stacktraceDir;
             GlobalExceptionHandler geh = new GlobalExceptionHandler(stacktraceDir);
             geh.setKillOnException(autoKill);
             Thread.setDefaultUncaughtExceptionHandler(geh);
@@ -97,7 +71,7 @@ public class Logger {
      * Removes the exception handler.
      */
     public static void unRegisterGlobalExceptionHandler() {
-        sInstance.stacktraceDir = null;
+        sStacktraceDir = null;
         Thread.setDefaultUncaughtExceptionHandler(null);
     }
 
@@ -106,7 +80,7 @@ public class Logger {
      * @return
      */
     public static File getStacktraceDir() {
-        return sInstance.stacktraceDir;
+        return sStacktraceDir;
     }
 
     /**
@@ -114,32 +88,56 @@ public class Logger {
      * @return
      */
     public static File[] listStacktraces() {
-        if(sInstance.stacktraceDir != null) {
-            return GlobalExceptionHandler.getStacktraces(sInstance.stacktraceDir);
+        if(sStacktraceDir != null) {
+            return GlobalExceptionHandler.getStacktraces(sStacktraceDir);
         } else {
             return new File[0];
         }
     }
 
     /**
-     * Configures the logger to write log messages to a file
+     * Configures the logger to write log messages to a file.
+     * This does not touch the disk so it is safe to call from Application.onCreate.
+     * The file is created and recovered in the background when the first message is logged.
      *
      * @param logFile        the file where logs will be written
      * @param minLogingLevel the minimum level a log must be before it is recorded to the log file
      */
-    public static void configure(File logFile, LogLevel minLogingLevel) {
-        sInstance = new Logger(logFile, minLogingLevel);
+    public static synchronized void configure(File logFile, LogLevel minLogingLevel) {
+        FileLogger logger = new FileLogger(logFile, minLogingLevel, FileLogger.DEFAULT_MAX_LOG_FILE_SIZE, sSink, sPublisher);
+        sInstance.replaceWith(logger);
+        sInstance = logger;
     }
 
     /**
-     * Configures the logger to write log messages to a file
+     * Configures the logger to write log messages to a file.
+     * This does not touch the disk so it is safe to call from Application.onCreate.
      *
      * @param logFile        the file where logs will be written
      * @param minLogingLevel the minimum level a log must be before it is recorded to the log file
      * @param maxLogFileSize the maximum size the log file may become before old logs are truncated
      */
-    public static void configure(File logFile, LogLevel minLogingLevel, long maxLogFileSize) {
-        sInstance = new Logger(logFile, minLogingLevel, maxLogFileSize);
+    public static synchronized void configure(File logFile, LogLevel minLogingLevel, long maxLogFileSize) {
+        FileLogger logger = new FileLogger(logFile, minLogingLevel, maxLogFileSize, sSink, sPublisher);
+        sInstance.replaceWith(logger);
+        sInstance = logger;
+    }
+
+    /**
+     * Configures the logger to write log messages to a file and keep entries by level.
+     * Entries the policy no longer keeps are removed in the background so errors can outlive
+     * the info messages around them.
+     *
+     * @param logFile        the file where logs will be written
+     * @param minLogingLevel the minimum level a log must be before it is recorded to the log file
+     * @param maxLogFileSize the maximum size the log file may become before old logs are truncated
+     * @param retention      decides how long entries of each level are kept
+     */
+    public static synchronized void configure(File logFile, LogLevel minLogingLevel, long maxLogFileSize, RetentionPolicy retention) {
+        FileLogger logger = new FileLogger(logFile, minLogingLevel, maxLogFileSize, sSink, sPublisher);
+        logger.setRetentionPolicy(retention);
+        sInstance.replaceWith(logger);
+        sInstance = logger;
     }
 
     /**
@@ -151,10 +149,7 @@ public class Logger {
      */
     public static void e(String logMessageTag, String logMessage) {
         try {
-            int logResult = Log.e(logMessageTag, logMessage);
-            if (logResult > 0) {
-                sInstance.logToFile(LogLevel.Error, logMessageTag, logMessage);
-            }
+            sInstance.log(LogLevel.Error, logMessageTag, logMessage);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -169,10 +164,7 @@ public class Logger {
      */
     public static void w(String logMessageTag, String logMessage) {
         try {
-            int logResult = Log.w(logMessageTag, logMessage);
-            if (logResult > 0) {
-                sInstance.logToFile(LogLevel.Warning, logMessageTag, logMessage);
-            }
+            sInstance.log(LogLevel.Warning, logMessageTag, logMessage);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -187,10 +179,7 @@ public class Logger {
      */
     public static void i(String logMessageTag, String logMessage) {
         try {
-            int logResult = Log.i(logMessageTag, logMessage);
-            if (logResult > 0) {
-                sInstance.logToFile(LogLevel.Info, logMessageTag, logMessage);
-            }
+            sInstance.log(LogLevel.Info, logMessageTag, logMessage);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -206,10 +195,7 @@ public class Logger {
      */
     public static void e(String logMessageTag, String logMessage, Throwable throwableException) {
         try {
-            int logResult = Log.e(logMessageTag, logMessage, throwableException);
-            if (logResult > 0) {
-                sInstance.logToFile(LogLevel.Error, logMessageTag, logMessage + "\r\n" + Log.getStackTraceString(throwableException));
-            }
+            sInstance.log(LogLevel.Error, logMessageTag, logMessage, throwableException);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -225,10 +211,57 @@ public class Logger {
      */
     public static void w(String logMessageTag, String logMessage, Throwable throwableException) {
         try {
-            int logResult = Log.w(logMessageTag, logMessage, throwableException);
-            if (logResult > 0) {
-                sInstance.logToFile(LogLevel.Warning, logMessageTag, logMessage + "\r\n" + Log.getStackTraceString(throwableException));
-            }
+            sInstance.log(LogLevel.Warning, logMessageTag, logMessage, throwableException);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends an info message with structured fields to LogCat and to a log file.
+     *
+     * @param logMessageTag A tag identifying a group of log messages. Should be a constant in the
+     *                      class calling the logger.
+     * @param logMessage    The message to add to the log.
+     * @param fields        Structured fields to record with the message. See {@link LogField#kv}
+     */
+    public static void i(String logMessageTag, String logMessage, LogField... fields) {
+        try {
+            sInstance.log(LogLevel.Info, logMessageTag, logMessage, null, fields);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends an error message, the exception and structured fields to LogCat and to a log file.
+     *
+     * @param logMessageTag      A tag identifying a group of log messages. Should be a constant in the
+     *                           class calling the logger.
+     * @param logMessage         The message to add to the log.
+     * @param throwableException An exception to log. May be null.
+     * @param fields             Structured fields to record with the message. See {@link LogField#kv}
+     */
+    public static void e(String logMessageTag, String logMessage, Throwable throwableException, LogField... fields) {
+        try {
+            sInstance.log(LogLevel.Error, logMessageTag, logMessage, throwableException, fields);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends a warning message, the exception and structured fields to LogCat and to a log file.
+     *
+     * @param logMessageTag      A tag identifying a group of log messages. Should be a constant in the
+     *                           class calling the logger.
+     * @param logMessage         The message to add to the log.
+     * @param throwableException An exception to log. May be null.
+     * @param fields             Structured fields to record with the message. See {@link LogField#kv}
+     */
+    public static void w(String logMessageTag, String logMessage, Throwable throwableException, LogField... fields) {
+        try {
+            sInstance.log(LogLevel.Warning, logMessageTag, logMessage, throwableException, fields);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -238,56 +271,63 @@ public class Logger {
      * Empties the log file and deletes stack traces
      */
     public static void flush() {
-        if (sInstance.mLogFile != null) {
-            sInstance.mLogFile.delete();
+        sInstance.flush();
+        if(sStacktraceDir != null) {
+            FileUtils.deleteRecursive(sStacktraceDir);
         }
-        if(sInstance.stacktraceDir != null) {
-            FileUtils.deleteRecursive(sInstance.stacktraceDir);
+    }
+
+    /**
+     * Subscribes to log entries as they are logged.
+     * Entries are delivered in batches on the main thread. If the main thread falls behind
+     * the oldest undelivered entries are discarded and counted.
+     * Subscriptions are kept when the logger is reconfigured.
+     *
+     * @param filter   selects the entries to deliver. If null all recorded entries are delivered.
+     * @param listener receives the entries
+     * @return the subscription. Cancel it when the listener is no longer needed.
+     */
+    public static synchronized LogSubscription subscribe(LogFilter filter, LogListener listener) {
+        if (sMainThreadExecutor == null) {
+            sMainThreadExecutor = new MainThreadExecutor();
         }
+        return subscribe(filter, listener, sMainThreadExecutor);
     }
 
     /**
-     * Gets a stamp containing the current date and time to write to the log.
+     * Subscribes to log entries as they are logged.
      *
-     * @return The stamp for the current date and time.
+     * @param filter   selects the entries to deliver. If null all recorded entries are delivered.
+     * @param listener receives the entries
+     * @param executor runs the listener
+     * @return the subscription. Cancel it when the listener is no longer needed.
      */
-    private static String getDateTimeStamp() {
-        Date dateNow = Calendar.getInstance().getTime();
-        return (DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, Locale.ENGLISH).format(dateNow));
+    public static LogSubscription subscribe(LogFilter filter, LogListener listener, Executor executor) {
+        return sPublisher.subscribe(filter, listener, executor);
     }
 
     /**
-     * Writes a message to the log file on the device.
+     * Subscribes to log entries as they are logged.
      *
-     * @param logMessageTag A tag identifying a group of log messages.
-     * @param logMessage The message to add to the log.
+     * @param filter   selects the entries to deliver. If null all recorded entries are delivered.
+     * @param listener receives the entries
+     * @param executor runs the listener
+     * @param capacity the maximum number of undelivered entries to buffer
+     * @param overflow what to do when the buffer is full
+     * @return the subscription. Cancel it when the listener is no longer needed.
      */
-    private synchronized void logToFile(LogLevel level, String logMessageTag, String logMessage) {
-        // filter out logging levels
-        if (level.getIndex() >= mMinLoggingLevel.getIndex() && mLogFile != null) {
-            try {
-                if (!mLogFile.exists()) {
-                    mLogFile.getParentFile().mkdirs();
-                    mLogFile.createNewFile();
-                }
-
-                // append log message
-
-                String log = FileUtils.readFileToString(mLogFile);
-                log = String.format("%1s %2s/%3s: %4s\r\n%5s", getDateTimeStamp(), level.getLabel(), logMessageTag, logMessage, log);
-                mLogFile.delete();
-                FileUtils.writeStringToFile(mLogFile, log);
-
-                // truncate the log if it gets too big.
-                if (mLogFile.length() > mMaxLogFileSize) {
-                    FileChannel outChan = new FileOutputStream(mLogFile, true).getChannel();
-                    outChan.truncate(mMaxLogFileSize * (long) 0.8);
-                    outChan.close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    public static LogSubscription subscribe(LogFilter filter, LogListener listener, Executor executor, int capacity, LogSubscription.Overflow overflow) {
+        return sPublisher.subscribe(filter, listener, executor, capacity, overflow);
+    }
+
+    /**
+     * Blocks until pending log entries have been written to the log file
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @return false if the timeout elapsed first
+     */
+    static boolean sync(long timeout) {
+        return sInstance.sync(timeout);
     }
 
     /**
@@ -295,7 +335,7 @@ public class Logger {
      * @return
      */
     public static File getLogFile() {
-        return sInstance.mLogFile;
+        return sInstance.getLogFile();
     }
 
     /**
@@ -303,44 +343,44 @@ public class Logger {
      * @return
      */
     public static List<LogEntry> getLogEntries() {
-        List<LogEntry> logs = new ArrayList<>();
-        if (sInstance.mLogFile != null) {
-            try {
-                BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(sInstance.mLogFile)));
-                StringBuilder sb = new StringBuilder();
-                String line;
-                Pattern pattern = Pattern.compile(Logger.PATTERN);
-                LogEntry log = null;
-                while ((line = br.readLine()) != null) {
-                    if (Thread.interrupted()) break;
-                    Matcher match = pattern.matcher(line);
-                    if (match.find()) {
-                        // save log
-                        if (log != null) {
-                            log.setDetails(sb.toString().trim());
-                            logs.add(log);
-                            sb.setLength(0);
-                        }
-                        // start new log
-                        SimpleDateFormat format = new SimpleDateFormat("MM/dd/yy hh:mm a");
-                        log = new LogEntry(format.parse(match.group(1)), LogLevel.getLevel(match.group(2)), match.group(3), match.group(5));
-                    } else {
-                        // build log details
-                        sb.append(line);
-                    }
-                }
-                // save the last log
-                if (log != null) {
-                    log.setDetails(sb.toString().trim());
-                    logs.add(log);
-                    sb.setLength(0);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        } else {
-            Log.w(Logger.class.getName(), "The log file has not been configured and cannot be read");
-        }
-        return logs;
+        return sInstance.getLogEntries();
+    }
+
+    /**
+     * Searches the retained log history.
+     * Terms are case insensitive whole words found in the message, tag or details.
+     * Terms separated by spaces or AND must all match, OR separates alternatives
+     * and NOT excludes entries containing a term.
+     * A quoted phrase matches its words next to each other and in order.
+     *
+     * @param query for example "timeout AND sync"
+     * @return the matching log entries with the newest entries first
+     */
+    public static List<LogEntry> search(String query) {
+        return sInstance.search(query);
+    }
+
+    /**
+     * Streams a diagnostics bundle containing the log, the stacktraces and a manifest.
+     * The bundle is an uncompressed tar archive. This reads from the disk so it should not be
+     * called on the main thread.
+     *
+     * @param out the stream to write to. It is not closed.
+     * @throws IOException
+     */
+    public static void exportBundle(OutputStream out) throws IOException {
+        sInstance.exportBundle(out, listStacktraces());
+    }
+
+    /**
+     * Streams a diagnostics bundle containing the log, the stacktraces and a manifest.
+     * The bundle is an uncompressed tar archive. This reads from the disk so it should not be
+     * called on the main thread.
+     *
+     * @param out the channel to write to such as a {@link java.nio.channels.FileChannel}. It is not closed.
+     * @throws IOException
+     */
+    public static void exportBundle(WritableByteChannel out) throws IOException {
+        sInstance.exportBundle(out, listStacktraces());
     }
 }
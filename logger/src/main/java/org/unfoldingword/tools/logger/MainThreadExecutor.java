@@ -0,0 +1,18 @@
+package org.unfoldingword.tools.logger;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks on the android main thread
+ */
+class MainThreadExecutor implements Executor {
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void execute(Runnable command) {
+        handler.post(command);
+    }
+}
@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * Replaces the android Looper class in jvm tests, where there is no main thread
+ */
+public class Looper {
+
+    private static final Looper sMainLooper = new Looper();
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    public Thread getThread() {
+        return null;
+    }
+}
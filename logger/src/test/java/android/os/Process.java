@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * Replaces the android Process class in jvm tests
+ */
+public class Process {
+
+    public static int myPid() {
+        return 1;
+    }
+
+    public static void killProcess(int pid) {
+        throw new UnsupportedOperationException("Cannot kill the test process");
+    }
+}
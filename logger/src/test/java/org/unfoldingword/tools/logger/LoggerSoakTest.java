@@ -0,0 +1,356 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hammers the {@link Logger} facade from many threads while it is reconfigured and flushed,
+ * then reads the log back to check that nothing accepted was lost or torn.
+ * Also measures throughput and call latency against the baseline in soak-baseline.properties.
+ * Run with -Dlogger.updateBaseline=true to record the current numbers as the new baseline.
+ */
+public class LoggerSoakTest {
+
+    private static final String TAG = "Soak";
+    private static final int WRITERS = 8;
+    private static final int ENTRIES_PER_WRITER = 5000;
+    private static final int THROWABLE_INTERVAL = 97;
+    private static final long CHAOS_INTERVAL = 50;
+    private static final int LOGGING = 0;
+    private static final int FLUSHING = 1;
+    private static final int FLUSHED = 2;
+    private static final long MAX_LOG_SIZE = 32 * 1024 * 1024;
+    private static final Pattern PAYLOAD = Pattern.compile("soak (\\d+) (\\d+) ([a-z]+)");
+    private static final String BASELINE = "soak-baseline.properties";
+    private static final File BASELINE_SOURCE = new File("src/test/resources/org/unfoldingword/tools/logger/" + BASELINE);
+    private static final File RESULTS = new File("build/reports/soak/results.properties");
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("logger-soak", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Logger.configure(null, LogLevel.Info);
+        // the replaced logger is closed on the io thread after everything queued before it
+        Logger.sync(10000);
+        FileUtils.deleteRecursive(mDir);
+    }
+
+    @Test
+    public void concurrentLoggingLosesNothing() throws Exception {
+        final File logFile = new File(mDir, "log.txt");
+        Logger.configure(logFile, LogLevel.Info, MAX_LOG_SIZE);
+        long droppedBefore = FileLogger.getDroppedEntries();
+
+        final AtomicInteger progress = new AtomicInteger();
+        final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicInteger flushPhase = new AtomicInteger(LOGGING);
+        // entries logged before the last flush began must be gone and those logged after it returned must be kept
+        final int[] lastFlushed = new int[WRITERS];
+        final int[] firstRequired = new int[WRITERS];
+        Arrays.fill(lastFlushed, -1);
+        Arrays.fill(firstRequired, ENTRIES_PER_WRITER);
+
+        Thread chaos = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int i = 0;
+                    while (progress.get() < WRITERS * ENTRIES_PER_WRITER / 3) {
+                        Logger.configure(logFile, LogLevel.Info, MAX_LOG_SIZE);
+                        if (i++ % 3 == 0) {
+                            Logger.flush();
+                        }
+                        Thread.sleep(CHAOS_INTERVAL);
+                    }
+                    flushPhase.set(FLUSHING);
+                    // entries still pending in the logger just replaced must be discarded as well
+                    Logger.configure(logFile, LogLevel.Info, MAX_LOG_SIZE);
+                    Logger.flush();
+                    flushPhase.set(FLUSHED);
+                    while (writersDone.getCount() > 0) {
+                        Logger.configure(logFile, LogLevel.Info, MAX_LOG_SIZE);
+                        Thread.sleep(CHAOS_INTERVAL);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        }, "soak-chaos");
+
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            writers[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int n = 0; n < ENTRIES_PER_WRITER; n++) {
+                            if (firstRequired[writer] == ENTRIES_PER_WRITER && flushPhase.get() == FLUSHED) {
+                                firstRequired[writer] = n;
+                            }
+                            log(writer, n);
+                            if (flushPhase.get() == LOGGING) {
+                                lastFlushed[writer] = n;
+                            }
+                            progress.incrementAndGet();
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            }, "soak-writer-" + w);
+        }
+        chaos.start();
+        for (Thread t : writers) {
+            t.start();
+        }
+        writersDone.await();
+        chaos.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        assertTrue("the log did not finish writing", Logger.sync(30000));
+        List<LogEntry> entries = Logger.getLogEntries();
+        boolean[][] seen = new boolean[WRITERS][ENTRIES_PER_WRITER];
+        int torn = 0;
+        int duplicates = 0;
+        for (LogEntry entry : entries) {
+            if (!TAG.equals(entry.classPath)) {
+                continue;
+            }
+            Matcher m = PAYLOAD.matcher(entry.message != null ? entry.message : "");
+            if (!m.matches()) {
+                torn++;
+                continue;
+            }
+            int writer = Integer.parseInt(m.group(1));
+            int n = Integer.parseInt(m.group(2));
+            if (writer >= WRITERS || n >= ENTRIES_PER_WRITER || !m.group(3).equals(padding(writer, n))
+                    || entry.level != expectedLevel(n) || !hasExpectedDetails(entry, writer, n)) {
+                torn++;
+                continue;
+            }
+            if (seen[writer][n]) {
+                duplicates++;
+            }
+            seen[writer][n] = true;
+        }
+        int missing = 0;
+        int required = 0;
+        int flushed = 0;
+        for (int w = 0; w < WRITERS; w++) {
+            for (int n = 0; n <= lastFlushed[w]; n++) {
+                if (seen[w][n]) {
+                    flushed++;
+                }
+            }
+            for (int n = firstRequired[w]; n < ENTRIES_PER_WRITER; n++) {
+                required++;
+                if (!seen[w][n]) {
+                    missing++;
+                }
+            }
+        }
+        long dropped = FileLogger.getDroppedEntries() - droppedBefore;
+
+        assertTrue("no entries were logged after the last flush", required > 0);
+        assertEquals("torn entries", 0, torn);
+        assertEquals("duplicate entries", 0, duplicates);
+        assertEquals("entries kept from before the last flush", 0, flushed);
+        assertEquals("entries dropped because the log could not keep up", 0, dropped);
+        assertEquals("entries lost after the last flush", 0, missing);
+    }
+
+    @Test
+    public void throughputAndLatencyWithinBaseline() throws Exception {
+        Logger.configure(new File(mDir, "perf.txt"), LogLevel.Info, 8 * 1024 * 1024);
+        final int threads = 4;
+        final int calls = 25000;
+        for (int i = 0; i < 20000; i++) {
+            Logger.i(TAG, "warm up " + i);
+        }
+        Logger.sync(30000);
+
+        long droppedBefore = FileLogger.getDroppedEntries();
+        final long[] latencies = new long[threads * calls];
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        Exception e = new IllegalStateException("perf");
+                        for (int n = 0; n < calls; n++) {
+                            long before = System.nanoTime();
+                            if (n % THROWABLE_INTERVAL == 0) {
+                                Logger.e(TAG, "perf " + thread + " " + n, e);
+                            } else {
+                                Logger.i(TAG, "perf " + thread + " " + n, LogField.kv("n", n));
+                            }
+                            latencies[thread * calls + n] = System.nanoTime() - before;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "perf-writer-" + t).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        assertTrue("the log did not finish writing", Logger.sync(30000));
+        long elapsed = System.nanoTime() - begin;
+        // callers wait for the io thread rather than losing entries so the numbers include every write
+        assertEquals("entries dropped because the log could not keep up", 0, FileLogger.getDroppedEntries() - droppedBefore);
+
+        Arrays.sort(latencies);
+        Properties results = new Properties();
+        results.setProperty("throughput.entriesPerSecond", Long.toString(latencies.length * 1000000000L / elapsed));
+        results.setProperty("latency.p50.nanos", Long.toString(percentile(latencies, 0.50)));
+        results.setProperty("latency.p99.nanos", Long.toString(percentile(latencies, 0.99)));
+        results.setProperty("latency.p999.nanos", Long.toString(percentile(latencies, 0.999)));
+        System.out.println("Logger soak results " + results);
+        store(results, RESULTS, "Logger soak results");
+
+        Properties baseline = loadBaseline();
+        if (Boolean.getBoolean("logger.updateBaseline")) {
+            results.setProperty("tolerance", baseline.getProperty("tolerance", "3"));
+            store(results, BASELINE_SOURCE, "Logger soak baseline");
+            return;
+        }
+        // the numbers depend on the machine so they are only enforced where the baseline was recorded
+        boolean enforce = Boolean.getBoolean("logger.enforceBaseline");
+        double tolerance = Double.parseDouble(baseline.getProperty("tolerance", "3"));
+        long throughput = Long.parseLong(results.getProperty("throughput.entriesPerSecond"));
+        long minThroughput = (long) (Long.parseLong(baseline.getProperty("throughput.entriesPerSecond")) / tolerance);
+        checkBaseline("throughput " + throughput + "/s is below " + minThroughput + "/s", throughput >= minThroughput, enforce);
+        for (String key : new String[]{"latency.p50.nanos", "latency.p99.nanos", "latency.p999.nanos"}) {
+            long value = Long.parseLong(results.getProperty(key));
+            long max = (long) (Long.parseLong(baseline.getProperty(key)) * tolerance);
+            checkBaseline(key + " " + value + "ns is above " + max + "ns", value <= max, enforce);
+        }
+    }
+
+    /**
+     * Fails or reports a measurement that is outside the baseline
+     *
+     * @param message describes the measurement
+     * @param within  true if the measurement is within the baseline
+     * @param enforce true to fail the test
+     */
+    private static void checkBaseline(String message, boolean within, boolean enforce) {
+        if (enforce) {
+            assertTrue(message, within);
+        } else if (!within) {
+            System.out.println("Logger soak baseline exceeded: " + message);
+        }
+    }
+
+    /**
+     * Logs the entry a writer makes at a position in its sequence
+     *
+     * @param writer
+     * @param n
+     */
+    private static void log(int writer, int n) {
+        String message = "soak " + writer + " " + n + " " + padding(writer, n);
+        if (n % THROWABLE_INTERVAL == 0) {
+            Logger.e(TAG, message, new IllegalStateException("soak " + writer + " " + n));
+        } else if (n % 3 == 0) {
+            Logger.i(TAG, message);
+        } else if (n % 3 == 1) {
+            Logger.w(TAG, message);
+        } else {
+            Logger.e(TAG, message);
+        }
+    }
+
+    private static LogLevel expectedLevel(int n) {
+        if (n % THROWABLE_INTERVAL == 0 || n % 3 == 2) {
+            return LogLevel.Error;
+        }
+        return n % 3 == 0 ? LogLevel.Info : LogLevel.Warning;
+    }
+
+    private static boolean hasExpectedDetails(LogEntry entry, int writer, int n) {
+        if (n % THROWABLE_INTERVAL != 0) {
+            return entry.getDetails() == null;
+        }
+        return entry.getDetails() != null
+                && entry.getDetails().startsWith("java.lang.IllegalStateException: soak " + writer + " " + n + "\n");
+    }
+
+    /**
+     * Returns padding whose length varies so torn or spliced records cannot match by accident
+     *
+     * @param writer
+     * @param n
+     * @return
+     */
+    private static String padding(int writer, int n) {
+        char[] chars = new char[1 + (n * 31 + writer) % 120];
+        Arrays.fill(chars, (char) ('a' + writer % 26));
+        return new String(chars);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)))];
+    }
+
+    private static Properties loadBaseline() throws IOException {
+        Properties baseline = new Properties();
+        InputStream in = LoggerSoakTest.class.getResourceAsStream(BASELINE);
+        if (in == null) {
+            throw new IOException("Missing " + BASELINE);
+        }
+        try {
+            baseline.load(in);
+        } finally {
+            in.close();
+        }
+        return baseline;
+    }
+
+    private static void store(Properties properties, File file, String comment) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, comment);
+        } finally {
+            out.close();
+        }
+    }
+}
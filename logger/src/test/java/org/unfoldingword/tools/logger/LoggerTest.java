@@ -0,0 +1,53 @@
+package org.unfoldingword.tools.logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LoggerTest {
+
+    private static final String TAG = "LoggerTest";
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("logger-test", "");
+        mDir.delete();
+        mDir.mkdirs();
+        Logger.configure(new File(mDir, "log.txt"), LogLevel.Info);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Logger.configure(null, LogLevel.Info);
+        // the replaced logger saves its index when it is closed on the io thread
+        Logger.sync(5000);
+        FileUtils.deleteRecursive(mDir);
+    }
+
+    @Test
+    public void nullThrowableIsAccepted() throws Exception {
+        // callers of the original api pass null when there is no exception
+        Logger.e(TAG, "error", null);
+        Logger.w(TAG, "warning", null);
+        Logger.e(TAG, "fields", null, LogField.kv("n", 1));
+        Logger.i(TAG, "info", LogField.kv("n", 2));
+        Logger.sync(5000);
+
+        List<LogEntry> entries = Logger.getLogEntries();
+        assertEquals(4, entries.size());
+        assertEquals("info", entries.get(0).message);
+        assertEquals(2, entries.get(0).getLong("n", 0));
+        assertEquals("fields", entries.get(1).message);
+        assertEquals(1, entries.get(1).getLong("n", 0));
+        assertEquals(LogLevel.Warning, entries.get(2).level);
+        assertEquals(LogLevel.Error, entries.get(3).level);
+        assertNull(entries.get(3).getDetails());
+    }
+}